@@ -3,4 +3,31 @@ java -classpath ./ LEDscript < test02.sil
 java -classpath ./ LEDscript < test03.sil
 java -classpath ./ LEDscript < test04.sil
 java -classpath ./ LEDscript < test05.sil
+java -classpath ./ LEDscript < test06.sil
+java -classpath ./ LEDscript -vm < test06.sil
+java -classpath ./ LEDscript -memory < test07.sil
+java -classpath ./ LEDscript -vm -memory < test07.sil
+java -classpath ./ LEDscript < test08.sil
+java -classpath ./ LEDscript -vm < test08.sil
+java -classpath ./ LEDscript < test09.sil
+java -classpath ./ LEDscript -visitor < test09.sil
+java -classpath ./ LEDscript < test10.sil
+java -classpath ./ LEDscript -vm test10.sil test10.sil test10.sil
+java -classpath ./ LEDscript -threads test01.sil test02.sil test07.sil test10.sil
+java -classpath ./ LEDscript < test11.sil
+java -classpath ./ LEDscript -fps 20 < test11.sil
+java -classpath ./ LEDscript < test12.sil > test12.out
+java -classpath ./ LEDscript -batch < test12.sil > test12.out
+java -classpath ./ LEDscript -sink file:test11.bin < test11.sil
+java -classpath ./ LEDscript -fps 20 -sink file:test11.bin < test11.sil
+java -classpath ./ LEDscript < test13.sil > test13.out
+java -classpath ./ LEDscript -delta < test13.sil > test13.out
+java -classpath ./ LEDscript < test14.sil
+java -classpath ./ LEDscript -binary < test14.sil
+java -classpath ./ LEDscript -replay strip.led -delta > test14.out
+java -classpath ./ LEDscript2.interpreter.Benchmarks -quick
+java -classpath ./ LEDscript -cache test06.sil
+start /b java -classpath ./ LEDscript -daemon
+timeout /t 1 > nul
+java -classpath ./ LEDscript2.interpreter.DaemonClient test06.sil
 
@@ -17,8 +17,26 @@ public class BaseASTNode {
 	// has a return value.
 	public boolean fnHasReturn = false;
 	
-	// References an object that optimises execution of the node.  For example, it might 
-	// reference a compiled function definition, so that the function needn't be redefined
-	// on every execution.	
-	public Object optimised = null;
+	// Set by the Resolver before execution on a variable or parameter dereference, and on
+	// a statement that assigns to a variable: the scope level and slot of that variable.
+	// The level is -1 if the name isn't a variable or parameter anywhere in scope.  On a
+	// function definition, the level is that of its parameters.
+	public int level = -1;
+	public int slot = -1;
+	
+	// Set by the Resolver before execution on a program or function definition: the
+	// number of slots its variables and parameters need.
+	public int slotCount = 0;
+	
+	// Set by the Resolver before execution on a function definition: true if the function
+	// is nothing but a return expression that makes no calls, so it can be inlined.
+	public boolean inlinable = false;
+	
+	// Set by the Resolver before execution on a node that keeps something from one visit
+	// to the next, such as the function a call finds or the value of a literal: its index
+	// in the table of sites each execution keeps.  It is -1 on other nodes.  On a program,
+	// siteCount is the number of sites.  Nothing is kept in the tree itself, so one tree
+	// can be run any number of times, and on any number of threads at once.
+	public int site = -1;
+	public int siteCount = 0;
 }
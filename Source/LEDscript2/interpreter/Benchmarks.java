@@ -0,0 +1,363 @@
+package LEDscript2.interpreter;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Random;
+
+import LEDscript2.leds.*;
+import LEDscript2.parser.*;
+
+/** Benchmarks of the lexer, the parser, each engine, and LED output, to measure a change
+ * by before and after.
+ *
+ * Each benchmark runs its operation for a warm-up, so that the JIT has compiled it, then
+ * for a number of timed iterations, each running the operation as many times as fit.
+ * The time an operation takes is reported as the mean of the iterations, give or take
+ * their standard deviation.  Every operation returns a value that is folded into a
+ * volatile field, so that the JIT can't find the work unused and drop it.  Only what an
+ * operation does is timed; scripts are generated and parsed beforehand.
+ *
+ * The engines run a fresh Context each time, printing to nowhere.  The program is
+ * compiled beforehand, once, as a compiled program can be run any number of times.
+ *
+ * Run it as
+ *   java -classpath <classes> LEDscript2.interpreter.Benchmarks [-quick] [<name> ...]
+ * to run the benchmarks whose names start with any of the names given, or all of them.
+ */
+public class Benchmarks {
+
+	// One benchmark, with the parameters it is run for
+	private static abstract class Benchmark {
+		final String name;
+		final String parameters;
+
+		Benchmark(String name, String parameters) {
+			this.name = name;
+			this.parameters = parameters;
+		}
+
+		/** Get ready to run the operation. */
+		void setUp() throws Exception {
+		}
+
+		/** Run the operation once, returning anything it worked out. */
+		abstract long operation() throws Exception;
+
+		/** Let go of what setUp got. */
+		void tearDown() {
+		}
+	}
+
+	private static final String[] engines = { "visitor", "compiler", "bytecode", "vm" };
+	private static final int[] statementCounts = { 100, 1000, 10000 };
+	private static final int showMegabytes = 10;
+	private static final int[] scriptLedCounts = { 30, 120, 240 };
+	private static final int[] ledCounts = { 30, 240, 1000, 4096 };
+	private static final String[] formats = { "text", "delta", "file", "record", "save" };
+
+	private static final Charset utf8 = Charset.forName("UTF-8");
+
+	// Where operations put what they work out
+	private static volatile long blackhole;
+
+	// Output that goes nowhere
+	private static final OutputStream nowhere = new OutputStream() {
+		public void write(int b) {
+		}
+
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	public static void main(String[] args) throws Exception {
+		long warmup = 2000;
+		int iterations = 5;
+		long iteration = 1000;
+		ArrayList<String> names = new ArrayList<String>();
+		for (String arg : args) {
+			if (arg.equals("-quick")) {
+				warmup = 200;
+				iterations = 3;
+				iteration = 200;
+			} else if (!arg.startsWith("-"))
+				names.add(arg);
+			else {
+				System.out.println("Usage: Benchmarks [-quick] [<name> ...]");
+				return;
+			}
+		}
+		System.out.println(String.format(Locale.ROOT, "%-11s %-30s %14s %12s", "Benchmark", "Parameters", "ns/op", "+/-"));
+		for (Benchmark benchmark : benchmarks()) {
+			if (!names.isEmpty() && !startsWithAny(benchmark.name, names))
+				continue;
+			measure(benchmark, warmup * 1000000, iterations, iteration * 1000000);
+		}
+	}
+
+	// True if a name starts with any of some prefixes.
+	private static boolean startsWithAny(String name, ArrayList<String> prefixes) {
+		for (String prefix : prefixes)
+			if (name.startsWith(prefix))
+				return true;
+		return false;
+	}
+
+	// Run a benchmark, and print the time its operation takes.
+	private static void measure(Benchmark benchmark, long warmup, int iterations, long iteration) throws Exception {
+		System.gc();
+		benchmark.setUp();
+		try {
+			long result = 0;
+			long start = System.nanoTime();
+			do
+				result ^= benchmark.operation();
+			while (System.nanoTime() - start < warmup);
+			double[] times = new double[iterations];
+			for (int i = 0; i < iterations; i++) {
+				long operations = 0;
+				start = System.nanoTime();
+				long elapsed;
+				do {
+					result ^= benchmark.operation();
+					operations++;
+				} while ((elapsed = System.nanoTime() - start) < iteration);
+				times[i] = (double) elapsed / operations;
+			}
+			blackhole = result;
+			double mean = 0;
+			for (double time : times)
+				mean += time;
+			mean /= iterations;
+			double variance = 0;
+			for (double time : times)
+				variance += (time - mean) * (time - mean);
+			double deviation = (iterations > 1) ? Math.sqrt(variance / (iterations - 1)) : 0;
+			System.out.println(String.format(Locale.ROOT, "%-11s %-30s %14.1f %12.1f", benchmark.name,
+					benchmark.parameters, mean, deviation));
+		} finally {
+			benchmark.tearDown();
+		}
+	}
+
+	// Get every benchmark, for every set of parameters.
+	private static ArrayList<Benchmark> benchmarks() {
+		ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (int statements : statementCounts)
+			benchmarks.add(lex(statements));
+		for (int statements : statementCounts)
+			benchmarks.add(parse(statements));
+		benchmarks.add(parseShow(showMegabytes));
+		for (String engine : engines)
+			benchmarks.add(run("arithmetic", engine, "engine=" + engine, arithmeticScript()));
+		for (String engine : engines)
+			benchmarks.add(run("loops", engine, "engine=" + engine, loopScript()));
+		for (String engine : engines)
+			for (int leds : scriptLedCounts)
+				benchmarks.add(run("update", engine, "engine=" + engine + " leds=" + leds, updateScript(leds)));
+		for (String format : formats)
+			for (int leds : ledCounts)
+				benchmarks.add(write(format, leds));
+		return benchmarks;
+	}
+
+	// Tokenise a script of some number of statements.
+	private static Benchmark lex(int statements) {
+		final byte[] source = script(statements).getBytes(utf8);
+		return new Benchmark("lex", "statements=" + statements) {
+			long operation() throws Exception {
+				SiliTokenManager tokens = new SiliTokenManager(
+						new SimpleCharStream(new ByteArrayInputStream(source), "UTF-8"));
+				long count = 0;
+				for (Token token = tokens.getNextToken(); token.kind != SiliConstants.EOF; token = tokens.getNextToken())
+					count += token.kind;
+				return count;
+			}
+		};
+	}
+
+	// Parse a script of some number of statements into a tree.
+	private static Benchmark parse(int statements) {
+		final byte[] source = script(statements).getBytes(utf8);
+		return new Benchmark("parse", "statements=" + statements) {
+			long operation() throws Exception {
+				return new Sili(new ByteArrayInputStream(source), "UTF-8").code().jjtGetNumChildren();
+			}
+		};
+	}
+
+	// Parse a show as a lighting designer's tools write one, of some number of megabytes.
+	private static Benchmark parseShow(int megabytes) {
+		final byte[] source = showScript(megabytes << 20).getBytes(utf8);
+		return new Benchmark("parse", "show=" + megabytes + "MB") {
+			long operation() throws Exception {
+				return new Sili(new ByteArrayInputStream(source), "UTF-8").code().jjtGetNumChildren();
+			}
+		};
+	}
+
+	// Run a script under an engine.
+	private static Benchmark run(String name, final String engine, String parameters, final String source) {
+		return new Benchmark(name, parameters) {
+			ASTCode program;
+			Statement compiled;
+
+			void setUp() throws Exception {
+				program = new Sili(new ByteArrayInputStream(source.getBytes(utf8)), "UTF-8").code();
+				Resolver.resolve(program);
+				compiled = Interpreter.compile(program, engine.equals("visitor"), engine.equals("bytecode"),
+						engine.equals("vm"));
+			}
+
+			long operation() throws Exception {
+				Context context = new Context(StandardColours.INSTANCE, program.slotCount,
+						new FrameWriter(nowhere, FrameWriter.Flush.BATCH));
+				compiled.execute(context);
+				context.finish();
+				return context.leds.find("strip").get(1);
+			}
+		};
+	}
+
+	// WRITE, or SAVE, an array in which a dot moves along one LED each time.
+	private static Benchmark write(final String format, final int leds) {
+		return new Benchmark("write", "format=" + format + " leds=" + leds) {
+			LedArray array;
+			LedSink sink;
+			FrameRecorder recorder;
+			File directory;
+			int dot = 1;
+
+			void setUp() throws Exception {
+				directory = File.createTempFile("bench", "");
+				directory.delete();
+				directory.mkdir();
+				// SAVE writes to <name>.txt, so the name puts it in the temporary directory
+				array = new LedArray(new File(directory, "strip").getPath(), leds);
+				for (int led = 1; led <= leds; led++)
+					array.set(led, led, 255 - led, led / 2);
+				String discard = System.getProperty("os.name").startsWith("Windows") ? "NUL" : "/dev/null";
+				if (format.equals("text"))
+					sink = new FrameWriter(nowhere, FrameWriter.Flush.BATCH);
+				else if (format.equals("delta"))
+					sink = new FrameWriter(nowhere, FrameWriter.Flush.BATCH, true);
+				else if (format.equals("file"))
+					sink = new FileSink(discard);
+				else if (format.equals("record"))
+					recorder = new FrameRecorder(discard, array);
+			}
+
+			long operation() throws Exception {
+				array.set(dot, 0, 0, 0);
+				dot = (dot % leds) + 1;
+				array.set(dot, 255, 255, 255);
+				if (sink != null) {
+					sink.write(array);
+					array.markClean();
+				} else if (recorder != null)
+					recorder.write(array);
+				else
+					LedPrinter.save(array);
+				return dot;
+			}
+
+			void tearDown() {
+				if (sink != null)
+					sink.close();
+				if (recorder != null)
+					recorder.close();
+				new File(array.getName() + ".txt").delete();
+				directory.delete();
+			}
+		};
+	}
+
+	// Get a script of some number of statements, of every kind, for the lexer and parser.
+	private static String script(int statements) {
+		StringBuilder script = new StringBuilder();
+		script.append("leds 30;\"strip\"\n");
+		script.append("fn mix(p, q) { return p / 2 + q / 2 }\n");
+		script.append("a = 1;\nb = 2;\nx = 3;\ny = 4;\nz = 5;\n");
+		for (int i = 0; i < statements; i++) {
+			switch (i % 8) {
+			case 0:
+				script.append("x = (a + 3) * 2 - b / 4;\n");
+				break;
+			case 1:
+				script.append("if (x > 10) {\ny = x - 1;\n} else {\ny = x + 1;\n}\n");
+				break;
+			case 2:
+				script.append("for(int i=1;i<11;i = i + 1;)\n{\nz = z + i;\n}\n");
+				break;
+			case 3:
+				script.append("update(x;y;z;" + (i % 30 + 1) + ";\"strip\");\n");
+				break;
+			case 4:
+				script.append("w = mix(x, y);\n");
+				break;
+			case 5:
+				script.append("// the dot moves along\n");
+				script.append("a = a + 1;\n");
+				break;
+			case 6:
+				script.append("update(10.5;x;y;2;\"strip\");\n");
+				break;
+			default:
+				script.append("write \"strip\";\n");
+				break;
+			}
+		}
+		return script.toString();
+	}
+
+	// Get a show of about some number of characters, as tools generate them: every LED
+	// set by a literal UPDATE, frame after frame, with a WRITE and DELAY after each.
+	private static String showScript(int length) {
+		StringBuilder script = new StringBuilder();
+		script.append("leds 240;\"strip\"\n");
+		Random random = new Random(1);
+		while (script.length() < length) {
+			for (int i = 0; i < 20; i++)
+				script.append("update(").append(random.nextInt(256)).append(';').append(random.nextInt(256)).append(';')
+						.append(random.nextInt(256)).append(';').append(random.nextInt(240) + 1).append(";\"strip\");\n");
+			script.append("write \"strip\";\ndelay 0.04;\n");
+		}
+		return script.toString();
+	}
+
+	// Get a script that mostly does arithmetic.
+	private static String arithmeticScript() {
+		return "leds 1;\"strip\"\n"
+				+ "a = 3;\nb = 7;\n"
+				+ "for(int i=1;i<101;i = i + 1;)\n{\n"
+				+ "for(int j=1;j<101;j = j + 1;)\n{\n"
+				+ "a = (a * 3 + j) / 2 - i / 4;\n"
+				+ "b = b + a / 3 - j / 5 + i / 7;\n"
+				+ "}\n}\n"
+				+ "update(a;b;1;1;\"strip\");\n";
+	}
+
+	// Get a script that mostly goes round loops.
+	private static String loopScript() {
+		return "leds 1;\"strip\"\n"
+				+ "c = 1;\n"
+				+ "for(int i=1;i<101;i = i + 1;)\n{\n"
+				+ "for(int j=1;j<101;j = j + 1;)\n{\n"
+				+ "for(int k=1;k<11;k = k + 1;)\n{\n"
+				+ "c = k;\n"
+				+ "}\n}\n}\n"
+				+ "update(c;c;c;1;\"strip\");\n";
+	}
+
+	// Get a script that updates every LED of an array, twenty times.
+	private static String updateScript(int leds) {
+		return "leds " + leds + ";\"strip\"\n"
+				+ "for(int f=1;f<21;f = f + 1;)\n{\n"
+				+ "for(int i=1;i<" + (leds + 1) + ";i = i + 1;)\n{\n"
+				+ "update(f;i;f + i;i;\"strip\");\n"
+				+ "}\n}\n";
+	}
+}
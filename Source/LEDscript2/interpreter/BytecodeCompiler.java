@@ -0,0 +1,589 @@
+package LEDscript2.interpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import LEDscript2.parser.*;
+import LEDscript2.values.*;
+
+/** Compiles an AST into a JVM class, so that a script runs as JIT-compiled code.
+ *
+ * Each script becomes one class extending GeneratedProgram, with one method per
+ * function definition.  The class is produced as Java source and turned into bytecode
+ * by the JDK's own compiler, in memory, then loaded through a class loader of its own.
+ * Expressions and control flow become straight Java code; variables, functions and
+ * LED arrays go through GeneratedProgram so they behave exactly as in the other
+ * engines.
+ */
+class BytecodeCompiler implements SiliVisitor {
+
+	private static final String className = "LEDscriptProgram";
+
+	// Statements per generated method, to stay clear of the JVM's method size limit.
+	private static final int statementsPerMethod = 100;
+
+	private int functionSites = 0;
+	private int definitionSites = 0;
+	private int ledSites = 0;
+
+	private final StringBuilder constants = new StringBuilder();
+	// The name of the constant made by each initialiser, so that each is only made once
+	private final HashMap<String, String> constantNames = new HashMap<String, String>();
+	private final ArrayList<String> functions = new ArrayList<String>();
+	private final StringBuilder methods = new StringBuilder();
+	private int partCount = 0;
+
+	// The method currently being generated
+	private StringBuilder code;
+	private int indent;
+
+	/** Compile a program into a loaded instance.  Each run is of an instance made by its newRun(). */
+	GeneratedProgram compile(ASTCode node) {
+		String source = generate(node);
+		Class<?> program = new ProgramClassLoader(className, javac(source)).loadProgram();
+		try {
+			return (GeneratedProgram) program.getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
+			throw new ExceptionSemantic("Unable to load compiled program: " + e);
+		}
+	}
+
+	/** Generate the Java source of a program. */
+	String generate(ASTCode node) {
+		beginMethod();
+		statements(node);
+		StringBuilder main = code;
+		StringBuilder dispatch = new StringBuilder();
+		for (int i = 0; i < functions.size(); i++)
+			dispatch.append("\t\tcase " + i + ": return f" + i + "();\n");
+		return "import LEDscript2.values.*;\n\n"
+				+ "public final class " + className + " extends LEDscript2.interpreter.GeneratedProgram {\n\n"
+				+ constants + "\n"
+				+ "\tpublic " + className + "() {\n"
+				+ "\t\tsuper(" + functionSites + ", " + definitionSites + ", " + ledSites + ");\n"
+				+ "\t}\n\n"
+				+ "\tprotected LEDscript2.interpreter.GeneratedProgram newRun() {\n"
+				+ "\t\treturn new " + className + "();\n"
+				+ "\t}\n\n"
+				+ "\tprotected void main() {\n" + main + "\t}\n\n"
+				+ "\tprotected Value function(int index) {\n"
+				+ "\t\tswitch (index) {\n" + dispatch + "\t\tdefault: return null;\n\t\t}\n"
+				+ "\t}\n\n"
+				+ methods
+				+ "}\n";
+	}
+
+	// Compile Java source into the bytecode of each class it defines.
+	private static HashMap<String, byte[]> javac(String source) {
+		JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+		if (javac == null)
+			throw new ExceptionSemantic("The bytecode engine needs the Java compiler, which is only present in a JDK.");
+		MemoryFileManager files = new MemoryFileManager(javac.getStandardFileManager(null, null, null));
+		String classPath = System.getProperty("java.class.path");
+		try {
+			File location = new File(GeneratedProgram.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+			classPath = location.getPath() + File.pathSeparator + classPath;
+		} catch (Exception e) {
+			// Fall back on the class path alone
+		}
+		StringWriter errors = new StringWriter();
+		JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///" + className + ".java"),
+				JavaFileObject.Kind.SOURCE) {
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return source;
+			}
+		};
+		boolean compiled = javac.getTask(errors, files, null, Arrays.asList("-classpath", classPath, "-g:none", "-nowarn"),
+				null, Collections.singletonList(file)).call();
+		if (!compiled)
+			throw new ExceptionSemantic("Bytecode compilation failed: " + errors);
+		return files.classes;
+	}
+
+	// Begin generating a new method.
+	private void beginMethod() {
+		code = new StringBuilder();
+		indent = 2;
+	}
+
+	// Add a line of code to the current method.
+	private void line(String text) {
+		for (int i = 0; i < indent; i++)
+			code.append('\t');
+		code.append(text).append('\n');
+	}
+
+	// Get a Java string literal for a given string.
+	private static String quote(String s) {
+		StringBuilder quoted = new StringBuilder("\"");
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (Character.isLetterOrDigit(c) && c < 128 || c == ' ' || c == '_')
+				quoted.append(c);
+			else if (c < 128)
+				quoted.append('\\').append(Integer.toOctalString(0400 | c).substring(1));
+			else
+				quoted.append(String.format("\\u%04x", (int) c));
+		}
+		return quoted.append('"').toString();
+	}
+
+	// Add a constant to the generated class, unless it has one with the same initialiser,
+	// and return its name.
+	private String constant(String initialiser) {
+		String name = constantNames.get(initialiser);
+		if (name == null) {
+			name = "k" + constantNames.size();
+			constantNames.put(initialiser, name);
+			constants.append("\tprivate static final Value " + name + " = " + initialiser + ";\n");
+		}
+		return name;
+	}
+
+	// Get the ith child of a given node.
+	private static SimpleNode getChild(SimpleNode node, int childIndex) {
+		return (SimpleNode) node.jjtGetChild(childIndex);
+	}
+
+	// Get the token value of the ith child of a given node.
+	private static String getTokenOfChild(SimpleNode node, int childIndex) {
+		return getChild(node, childIndex).tokenValue;
+	}
+
+	// Get the value of a string literal that is the ith child of a given node, as Java source.
+	private static String getStringOfChild(SimpleNode node, int childIndex) {
+		String token = getTokenOfChild(node, childIndex);
+		return quote(token.substring(1, token.length() - 1));
+	}
+
+	// Get the Java source of the ith child of a given node, as an expression.
+	private String expression(SimpleNode node, int childIndex) {
+		return (String) node.jjtGetChild(childIndex).jjtAccept(this, null);
+	}
+
+	// Generate the ith child of a given node as a statement.
+	private void statement(SimpleNode node, int childIndex) {
+		node.jjtGetChild(childIndex).jjtAccept(this, null);
+	}
+
+	// Generate all children of a given node as statements.  More than statementsPerMethod
+	// are split into methods of their own, called in turn, which they can be as variables
+	// are kept by the context rather than in Java locals.
+	private void statements(SimpleNode node) {
+		int count = node.jjtGetNumChildren();
+		if (count <= statementsPerMethod) {
+			for (int i = 0; i < count; i++)
+				statement(node, i);
+			return;
+		}
+		for (int first = 0; first < count; first += statementsPerMethod) {
+			String part = "part" + partCount++;
+			line(part + "();");
+			StringBuilder enclosingCode = code;
+			int enclosingIndent = indent;
+			beginMethod();
+			for (int i = first; i < count && i < first + statementsPerMethod; i++)
+				statement(node, i);
+			methods.append("\tprivate void " + part + "() {\n").append(code).append("\t}\n\n");
+			code = enclosingCode;
+			indent = enclosingIndent;
+		}
+	}
+
+	// Get the Java source of a call or invocation.  Arguments are passed one at a time,
+	// straight into the invocation, so a call allocates nothing.
+	private String call(SimpleNode node, boolean inExpression) {
+		SimpleNode arglist = getChild(node, 1);
+		String invocation = "invocation(function(" + functionSites++ + ", " + quote(getTokenOfChild(node, 0)) + ", "
+				+ inExpression + ", " + arglist.jjtGetNumChildren() + "))";
+		for (int i = 0; i < arglist.jjtGetNumChildren(); i++)
+			invocation = "argument(" + invocation + ", " + i + ", " + expression(arglist, i) + ")";
+		return "call(" + invocation + ")";
+	}
+
+	// Generate a statement that stores a value into the variable named by the first child.
+	private void assign(SimpleNode node, String value) {
+		line("assign(" + node.level + ", " + node.slot + ", " + value + ");");
+	}
+
+	// Called if one of the following methods is missing...
+	public Object visit(SimpleNode node, Object data) {
+		throw new ExceptionSemantic(node + ": bytecode compiler not implemented in subclass?");
+	}
+
+	// A Sili program is generated by generate()
+	public Object visit(ASTCode node, Object data) {
+		statements(node);
+		return null;
+	}
+
+	// A statement
+	public Object visit(ASTStatement node, Object data) {
+		statements(node);
+		return null;
+	}
+
+	// A block
+	public Object visit(ASTBlock node, Object data) {
+		line("{");
+		indent++;
+		statements(node);
+		indent--;
+		line("}");
+		return null;
+	}
+
+	// Function definition.  The function becomes a method of its own.
+	public Object visit(ASTFnDef node, Object data) {
+		int index = functions.size();
+		functions.add(getTokenOfChild(node, 0));
+		SimpleNode parmlist = getChild(node, 1);
+		String parameters = "new String[] {";
+		for (int i = 0; i < parmlist.jjtGetNumChildren(); i++)
+			parameters += ((i == 0) ? "" : ", ") + quote(getTokenOfChild(parmlist, i));
+		parameters += "}";
+		line("defineFunction(" + definitionSites++ + ", " + quote(getTokenOfChild(node, 0)) + ", " + parameters + ", "
+				+ node.slotCount + ", " + node.fnHasReturn + ", " + index + ");");
+		// Generate the function's method
+		StringBuilder enclosingCode = code;
+		int enclosingIndent = indent;
+		beginMethod();
+		statement(node, 2);
+		line("return " + ((node.fnHasReturn) ? expression(node, 3) : "null") + ";");
+		methods.append("\tprivate Value f" + index + "() {\n").append(code).append("\t}\n\n");
+		code = enclosingCode;
+		indent = enclosingIndent;
+		return null;
+	}
+
+	// Function definition parameter list.  Generated by its function definition.
+	public Object visit(ASTParmlist node, Object data) {
+		return null;
+	}
+
+	// Function body
+	public Object visit(ASTFnBody node, Object data) {
+		statements(node);
+		return null;
+	}
+
+	// Function return expression
+	public Object visit(ASTReturnExpression node, Object data) {
+		return expression(node, 0);
+	}
+
+	// Function call
+	public Object visit(ASTCall node, Object data) {
+		line(call(node, false) + ";");
+		return null;
+	}
+
+	// Function invocation in an expression
+	public Object visit(ASTFnInvoke node, Object data) {
+		return call(node, true);
+	}
+
+	// Function invocation argument list.  Generated by its call or invocation.
+	public Object visit(ASTArgList node, Object data) {
+		return null;
+	}
+
+	// IF
+	public Object visit(ASTIfStatement node, Object data) {
+		line("if (ifTest(" + expression(node, 0) + ")) {");
+		indent++;
+		statement(node, 1);
+		indent--;
+		if (node.ifHasElse) {
+			line("} else {");
+			indent++;
+			statement(node, 2);
+			indent--;
+		}
+		line("}");
+		return null;
+	}
+
+	// FOR loop
+	public Object visit(ASTForLoop node, Object data) {
+		statement(node, 0);
+		line("while (forTest(" + expression(node, 1) + ")) {");
+		indent++;
+		statement(node, 3);
+		statement(node, 2);
+		indent--;
+		line("}");
+		return null;
+	}
+
+	// An identifier.  Generated by the node that names it.
+	public Object visit(ASTIdentifier node, Object data) {
+		return null;
+	}
+
+	// WRITE
+	public Object visit(ASTWrite node, Object data) {
+		line("write(" + ledSites++ + ", " + getStringOfChild(node, 0) + ");");
+		return null;
+	}
+
+	// Dereference a variable or parameter
+	public Object visit(ASTDereference node, Object data) {
+		return "variable(" + node.level + ", " + node.slot + ", " + quote(node.tokenValue) + ")";
+	}
+
+	// Assignment
+	public Object visit(ASTAssignment node, Object data) {
+		assign(node, "atLeastOne(" + expression(node, 1) + ")");
+		return null;
+	}
+
+	// OR
+	public Object visit(ASTOr node, Object data) {
+		return expression(node, 0) + ".or(" + expression(node, 1) + ")";
+	}
+
+	// AND
+	public Object visit(ASTAnd node, Object data) {
+		return expression(node, 0) + ".and(" + expression(node, 1) + ")";
+	}
+
+	// ==
+	public Object visit(ASTCompEqual node, Object data) {
+		return expression(node, 0) + ".eq(" + expression(node, 1) + ")";
+	}
+
+	// !=
+	public Object visit(ASTCompNequal node, Object data) {
+		return expression(node, 0) + ".neq(" + expression(node, 1) + ")";
+	}
+
+	// >=
+	public Object visit(ASTCompGTE node, Object data) {
+		return expression(node, 0) + ".gte(" + expression(node, 1) + ")";
+	}
+
+	// <=
+	public Object visit(ASTCompLTE node, Object data) {
+		return expression(node, 0) + ".lte(" + expression(node, 1) + ")";
+	}
+
+	// >
+	public Object visit(ASTCompGT node, Object data) {
+		return expression(node, 0) + ".gt(" + expression(node, 1) + ")";
+	}
+
+	// <
+	public Object visit(ASTCompLT node, Object data) {
+		return expression(node, 0) + ".lt(" + expression(node, 1) + ")";
+	}
+
+	// +
+	public Object visit(ASTAdd node, Object data) {
+		return expression(node, 0) + ".addClamped(" + expression(node, 1) + ", null, ValueInteger.MAX_CHANNEL)";
+	}
+
+	// -
+	public Object visit(ASTSubtract node, Object data) {
+		return expression(node, 0) + ".subtractClamped(" + expression(node, 1) + ", ValueInteger.MIN_CHANNEL, null)";
+	}
+
+	// *
+	public Object visit(ASTTimes node, Object data) {
+		return expression(node, 0) + ".multClamped(" + expression(node, 1) + ", null, ValueInteger.MAX_CHANNEL)";
+	}
+
+	// /
+	public Object visit(ASTDivide node, Object data) {
+		return expression(node, 0) + ".divClamped(" + expression(node, 1) + ", null, ValueInteger.MAX_CHANNEL)";
+	}
+
+	// NOT
+	public Object visit(ASTUnaryNot node, Object data) {
+		return expression(node, 0) + ".not()";
+	}
+
+	// + (unary)
+	public Object visit(ASTUnaryPlus node, Object data) {
+		return expression(node, 0) + ".unary_plus()";
+	}
+
+	// - (unary)
+	public Object visit(ASTUnaryMinus node, Object data) {
+		return expression(node, 0) + ".unary_minus()";
+	}
+
+	// String literal
+	public Object visit(ASTCharacter node, Object data) {
+		String token = node.tokenValue;
+		return constant("new ValueString(" + quote(token.substring(1, token.length() - 1)) + ")");
+	}
+
+	// Integer literal.  Numbers above 255 are held at 255, so every literal is one of the
+	// integers ValueInteger keeps, and needs no constant of its own.
+	public Object visit(ASTInteger node, Object data) {
+		long number = Long.parseLong(node.tokenValue);
+		if (number > ValueInteger.MAX_CHANNEL.longValue())
+			return "ValueInteger.MAX_CHANNEL";
+		return "ValueInteger.of(" + number + ")";
+	}
+
+	// Floating point literal
+	public Object visit(ASTRational node, Object data) {
+		long bits = Double.doubleToLongBits(Double.parseDouble(node.tokenValue));
+		return constant("new ValueRational(Double.longBitsToDouble(" + bits + "L))");
+	}
+
+	// True literal
+	public Object visit(ASTTrue node, Object data) {
+		return "ValueBoolean.TRUE";
+	}
+
+	// False literal
+	public Object visit(ASTFalse node, Object data) {
+		return "ValueBoolean.FALSE";
+	}
+
+	// BRIGHTEN
+	public Object visit(ASTAddassign node, Object data) {
+		assign(node, expression(node, 0) + ".addClamped(" + expression(node, 1)
+				+ ", ValueInteger.MIN_CHANNEL, ValueInteger.MAX_CHANNEL)");
+		return null;
+	}
+
+	// DARKEN
+	public Object visit(ASTDecassign node, Object data) {
+		assign(node, expression(node, 0) + ".subtractClamped(" + expression(node, 1)
+				+ ", ValueInteger.MIN_CHANNEL, ValueInteger.MAX_CHANNEL)");
+		return null;
+	}
+
+	// FLIP
+	public Object visit(ASTflipassign node, Object data) {
+		assign(node, "ValueInteger.MAX_CHANNEL.subtractClamped(" + expression(node, 0)
+				+ ", ValueInteger.MIN_CHANNEL, ValueInteger.MAX_CHANNEL)");
+		return null;
+	}
+
+	// MULTIPLY
+	public Object visit(ASTMultiassign node, Object data) {
+		assign(node, expression(node, 0) + ".multClamped(" + expression(node, 1)
+				+ ", ValueInteger.MIN_CHANNEL, ValueInteger.MAX_CHANNEL)");
+		return null;
+	}
+
+	// DIVIDE
+	public Object visit(ASTDivassign node, Object data) {
+		assign(node, expression(node, 0) + ".divClamped(" + expression(node, 1)
+				+ ", ValueInteger.MIN_CHANNEL, ValueInteger.MAX_CHANNEL)");
+		return null;
+	}
+
+	// DELAY
+	public Object visit(ASTDelay node, Object data) {
+		line("delay(" + expression(node, 0) + ");");
+		return null;
+	}
+
+	// CLEAR
+	public Object visit(ASTClear node, Object data) {
+		assign(node, "ValueInteger.MIN_CHANNEL");
+		return null;
+	}
+
+	// FILL
+	public Object visit(ASTFill node, Object data) {
+		assign(node, "ValueInteger.MAX_CHANNEL");
+		return null;
+	}
+
+	// UPDATE
+	public Object visit(ASTUpdate node, Object data) {
+		line("update(" + ledSites++ + ", " + getStringOfChild(node, 4) + ", " + expression(node, 0) + ", "
+				+ expression(node, 1) + ", " + expression(node, 2) + ", " + expression(node, 3) + ");");
+		return null;
+	}
+
+	// INFO
+	public Object visit(ASTInfo node, Object data) {
+		line("info(" + ledSites++ + ", " + getStringOfChild(node, 0) + ");");
+		return null;
+	}
+
+	// LEDS.  The LED count is read from the literal, as arrays can hold more than 255 LEDs.
+	public Object visit(ASTLeds node, Object data) {
+		line("leds(" + definitionSites++ + ", " + getStringOfChild(node, 1) + ", " + Long.parseLong(getTokenOfChild(node, 0))
+				+ "L);");
+		return null;
+	}
+
+	// SAVE
+	public Object visit(ASTSave node, Object data) {
+		line("save(" + ledSites++ + ", " + getStringOfChild(node, 0) + ");");
+		return null;
+	}
+
+	/** Keeps the class files written by the compiler in memory. */
+	private static class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+		final HashMap<String, byte[]> classes = new HashMap<String, byte[]>();
+
+		MemoryFileManager(StandardJavaFileManager files) {
+			super(files);
+		}
+
+		public JavaFileObject getJavaFileForOutput(Location location, final String name, JavaFileObject.Kind kind,
+				FileObject sibling) {
+			return new SimpleJavaFileObject(URI.create("memory:///" + name.replace('.', '/') + kind.extension), kind) {
+				public OutputStream openOutputStream() {
+					return new ByteArrayOutputStream() {
+						public void close() {
+							classes.put(name, toByteArray());
+						}
+					};
+				}
+			};
+		}
+	}
+
+	/** Loads the classes of one compiled program. */
+	private static class ProgramClassLoader extends ClassLoader {
+		private final String programName;
+		private final HashMap<String, byte[]> classes;
+
+		ProgramClassLoader(String programName, HashMap<String, byte[]> classes) {
+			super(GeneratedProgram.class.getClassLoader());
+			this.programName = programName;
+			this.classes = classes;
+		}
+
+		Class<?> loadProgram() {
+			try {
+				return loadClass(programName);
+			} catch (ClassNotFoundException e) {
+				throw new ExceptionSemantic("Unable to load compiled program: " + e);
+			}
+		}
+
+		protected Class<?> findClass(String name) throws ClassNotFoundException {
+			byte[] bytes = classes.get(name);
+			if (bytes == null)
+				throw new ClassNotFoundException(name);
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+}
@@ -0,0 +1,343 @@
+package LEDscript2.interpreter;
+
+import LEDscript2.parser.*;
+import LEDscript2.values.*;
+
+/** Compiles an AST into a tree of Statement and Expression objects.
+ *
+ * Each visit returns the compiled form of the node it visits.  The compiled tree is
+ * what runs; the AST is not visited again once it has been compiled.
+ */
+class Compiler implements SiliVisitor {
+
+	// The level of the parameters of the function being compiled for inlining, if any
+	private static final int notInlining = -2;
+	private int inlineLevel = notInlining;
+
+	// Get the ith child of a given node.
+	private static SimpleNode getChild(SimpleNode node, int childIndex) {
+		return (SimpleNode) node.jjtGetChild(childIndex);
+	}
+
+	// Get the token value of the ith child of a given node.
+	private static String getTokenOfChild(SimpleNode node, int childIndex) {
+		return getChild(node, childIndex).tokenValue;
+	}
+
+	// Get the value of a string literal that is the ith child of a given node.
+	private static String getStringOfChild(SimpleNode node, int childIndex) {
+		return ValueString.stripDelimited(getTokenOfChild(node, childIndex)).stringValue();
+	}
+
+	// Compile the ith child of a given node as an expression.
+	private Expression expression(SimpleNode node, int childIndex) {
+		return (Expression) node.jjtGetChild(childIndex).jjtAccept(this, null);
+	}
+
+	// Compile the ith child of a given node as a statement.
+	private Statement statement(SimpleNode node, int childIndex) {
+		return (Statement) node.jjtGetChild(childIndex).jjtAccept(this, null);
+	}
+
+	// Compile all children of a given node as expressions.
+	private Expression[] expressions(SimpleNode node) {
+		Expression[] expressions = new Expression[node.jjtGetNumChildren()];
+		for (int i = 0; i < expressions.length; i++)
+			expressions[i] = expression(node, i);
+		return expressions;
+	}
+
+	// Compile all children of a given node as a sequence of statements.
+	private Statement statements(SimpleNode node) {
+		int count = node.jjtGetNumChildren();
+		if (count == 0)
+			return new Statement.Empty();
+		if (count == 1)
+			return statement(node, 0);
+		Statement[] statements = new Statement[count];
+		for (int i = 0; i < count; i++)
+			statements[i] = statement(node, i);
+		return new Statement.Block(statements);
+	}
+
+	/** Compile a program. */
+	Statement compile(ASTCode node) {
+		return (Statement) node.jjtAccept(this, null);
+	}
+
+	// Called if one of the following methods is missing...
+	public Object visit(SimpleNode node, Object data) {
+		throw new ExceptionSemantic(node + ": compiler not implemented in subclass?");
+	}
+
+	// A Sili program
+	public Object visit(ASTCode node, Object data) {
+		return new Statement.Program(statements(node), node.siteCount);
+	}
+
+	// A statement
+	public Object visit(ASTStatement node, Object data) {
+		return statements(node);
+	}
+
+	// A block
+	public Object visit(ASTBlock node, Object data) {
+		return statements(node);
+	}
+
+	// Function definition
+	public Object visit(ASTFnDef node, Object data) {
+		// Child 0 - identifier (fn name)
+		String fnname = getTokenOfChild(node, 0);
+		// Child 1 - function definition parameter list
+		SimpleNode parmlist = getChild(node, 1);
+		String[] parameters = new String[parmlist.jjtGetNumChildren()];
+		for (int i = 0; i < parameters.length; i++)
+			parameters[i] = getTokenOfChild(parmlist, i);
+		// Child 2 - function body
+		Statement body = statement(node, 2);
+		// Child 3 - optional return expression
+		Expression returnExpression = (node.fnHasReturn) ? expression(node, 3) : null;
+		// If it can be inlined, compile it again, reading its parameters from the inlined call
+		Expression inlineFunction = null;
+		if (node.inlinable) {
+			int oldInlineLevel = inlineLevel;
+			inlineLevel = node.level;
+			inlineFunction = expression(node, 3);
+			inlineLevel = oldInlineLevel;
+		}
+		return new Statement.FunctionDef(fnname, parameters, node.slotCount, body, returnExpression, inlineFunction,
+				node.site);
+	}
+
+	// Function definition parameter list.  Compiled by its function definition.
+	public Object visit(ASTParmlist node, Object data) {
+		return null;
+	}
+
+	// Function body
+	public Object visit(ASTFnBody node, Object data) {
+		return statements(node);
+	}
+
+	// Function return expression
+	public Object visit(ASTReturnExpression node, Object data) {
+		return expression(node, 0);
+	}
+
+	// Function call
+	public Object visit(ASTCall node, Object data) {
+		return new Statement.Call(callSite(node));
+	}
+
+	// Function invocation in an expression
+	public Object visit(ASTFnInvoke node, Object data) {
+		return new Expression.Invoke(callSite(node));
+	}
+
+	// The site of a call or invocation
+	private Expression.CallSite callSite(SimpleNode node) {
+		return new Expression.CallSite(getTokenOfChild(node, 0), expressions(getChild(node, 1)), node.site);
+	}
+
+	// Function invocation argument list.  Compiled by its call or invocation.
+	public Object visit(ASTArgList node, Object data) {
+		return null;
+	}
+
+	// IF
+	public Object visit(ASTIfStatement node, Object data) {
+		return new Statement.If(expression(node, 0), statement(node, 1), (node.ifHasElse) ? statement(node, 2) : null);
+	}
+
+	// FOR loop
+	public Object visit(ASTForLoop node, Object data) {
+		return new Statement.For(statement(node, 0), expression(node, 1), statement(node, 2), statement(node, 3));
+	}
+
+	// An identifier.  Compiled by the node that names it.
+	public Object visit(ASTIdentifier node, Object data) {
+		return null;
+	}
+
+	// WRITE
+	public Object visit(ASTWrite node, Object data) {
+		return new Statement.Write(getStringOfChild(node, 0), node.site);
+	}
+
+	// Dereference a variable or parameter
+	public Object visit(ASTDereference node, Object data) {
+		if (node.level == inlineLevel)
+			return new Expression.InlineArgument(node.slot);
+		return new Expression.Dereference(node.tokenValue, node.level, node.slot);
+	}
+
+	// Assignment
+	public Object visit(ASTAssignment node, Object data) {
+		return new Statement.Assignment(node.level, node.slot, expression(node, 1));
+	}
+
+	// OR
+	public Object visit(ASTOr node, Object data) {
+		return new Expression.Or(expression(node, 0), expression(node, 1));
+	}
+
+	// AND
+	public Object visit(ASTAnd node, Object data) {
+		return new Expression.And(expression(node, 0), expression(node, 1));
+	}
+
+	// ==
+	public Object visit(ASTCompEqual node, Object data) {
+		return new Expression.Equal(expression(node, 0), expression(node, 1));
+	}
+
+	// !=
+	public Object visit(ASTCompNequal node, Object data) {
+		return new Expression.NotEqual(expression(node, 0), expression(node, 1));
+	}
+
+	// >=
+	public Object visit(ASTCompGTE node, Object data) {
+		return new Expression.GreaterOrEqual(expression(node, 0), expression(node, 1));
+	}
+
+	// <=
+	public Object visit(ASTCompLTE node, Object data) {
+		return new Expression.LessOrEqual(expression(node, 0), expression(node, 1));
+	}
+
+	// >
+	public Object visit(ASTCompGT node, Object data) {
+		return new Expression.Greater(expression(node, 0), expression(node, 1));
+	}
+
+	// <
+	public Object visit(ASTCompLT node, Object data) {
+		return new Expression.Less(expression(node, 0), expression(node, 1));
+	}
+
+	// +
+	public Object visit(ASTAdd node, Object data) {
+		return new Expression.Add(expression(node, 0), expression(node, 1));
+	}
+
+	// -
+	public Object visit(ASTSubtract node, Object data) {
+		return new Expression.Subtract(expression(node, 0), expression(node, 1));
+	}
+
+	// *
+	public Object visit(ASTTimes node, Object data) {
+		return new Expression.Times(expression(node, 0), expression(node, 1));
+	}
+
+	// /
+	public Object visit(ASTDivide node, Object data) {
+		return new Expression.Divide(expression(node, 0), expression(node, 1));
+	}
+
+	// NOT
+	public Object visit(ASTUnaryNot node, Object data) {
+		return new Expression.Not(expression(node, 0));
+	}
+
+	// + (unary)
+	public Object visit(ASTUnaryPlus node, Object data) {
+		return new Expression.Plus(expression(node, 0));
+	}
+
+	// - (unary)
+	public Object visit(ASTUnaryMinus node, Object data) {
+		return new Expression.Minus(expression(node, 0));
+	}
+
+	// String literal
+	public Object visit(ASTCharacter node, Object data) {
+		return new Expression.Literal(ValueString.stripDelimited(node.tokenValue));
+	}
+
+	// Integer literal.  Numbers above 255 are held at 255.
+	public Object visit(ASTInteger node, Object data) {
+		ValueInteger number = ValueInteger.of(Long.parseLong(node.tokenValue));
+		if (number.compare(ValueInteger.MAX_CHANNEL) == 1)
+			number = ValueInteger.MAX_CHANNEL;
+		return new Expression.Literal(number);
+	}
+
+	// Floating point literal
+	public Object visit(ASTRational node, Object data) {
+		return new Expression.Literal(new ValueRational(Double.parseDouble(node.tokenValue)));
+	}
+
+	// True literal
+	public Object visit(ASTTrue node, Object data) {
+		return new Expression.Literal(ValueBoolean.TRUE);
+	}
+
+	// False literal
+	public Object visit(ASTFalse node, Object data) {
+		return new Expression.Literal(ValueBoolean.FALSE);
+	}
+
+	// BRIGHTEN
+	public Object visit(ASTAddassign node, Object data) {
+		return new Statement.AddAssign(node.level, node.slot, expression(node, 0), expression(node, 1));
+	}
+
+	// DARKEN
+	public Object visit(ASTDecassign node, Object data) {
+		return new Statement.DecAssign(node.level, node.slot, expression(node, 0), expression(node, 1));
+	}
+
+	// FLIP
+	public Object visit(ASTflipassign node, Object data) {
+		return new Statement.FlipAssign(node.level, node.slot, expression(node, 0));
+	}
+
+	// MULTIPLY
+	public Object visit(ASTMultiassign node, Object data) {
+		return new Statement.MultiAssign(node.level, node.slot, expression(node, 0), expression(node, 1));
+	}
+
+	// DIVIDE
+	public Object visit(ASTDivassign node, Object data) {
+		return new Statement.DivAssign(node.level, node.slot, expression(node, 0), expression(node, 1));
+	}
+
+	// DELAY
+	public Object visit(ASTDelay node, Object data) {
+		return new Statement.Delay(expression(node, 0));
+	}
+
+	// CLEAR
+	public Object visit(ASTClear node, Object data) {
+		return new Statement.Clear(node.level, node.slot);
+	}
+
+	// FILL
+	public Object visit(ASTFill node, Object data) {
+		return new Statement.Fill(node.level, node.slot);
+	}
+
+	// UPDATE
+	public Object visit(ASTUpdate node, Object data) {
+		return new Statement.Update(expression(node, 0), expression(node, 1), expression(node, 2), expression(node, 3),
+				getStringOfChild(node, 4), node.site);
+	}
+
+	// INFO
+	public Object visit(ASTInfo node, Object data) {
+		return new Statement.Info(getStringOfChild(node, 0), node.site);
+	}
+
+	// LEDS.  The LED count is read from the literal, as arrays can hold more than 255 LEDs.
+	public Object visit(ASTLeds node, Object data) {
+		return new Statement.Leds(getStringOfChild(node, 1), Long.parseLong(getTokenOfChild(node, 0)), node.site);
+	}
+
+	// SAVE
+	public Object visit(ASTSave node, Object data) {
+		return new Statement.Save(getStringOfChild(node, 0), node.site);
+	}
+}
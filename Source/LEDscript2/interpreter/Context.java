@@ -0,0 +1,132 @@
+package LEDscript2.interpreter;
+
+import java.util.HashMap;
+
+import LEDscript2.leds.*;
+import LEDscript2.values.Value;
+
+/** The run-time state of one execution of a compiled program. */
+class Context {
+
+	// Scope display handler
+	final Display scope;
+
+	// LED arrays defined by the program
+	final LedRegistry leds = new LedRegistry();
+
+	// What each site of a compiled program has kept: the LED array or function it found or
+	// defined.  Made when the program starts.
+	Object[] sites;
+
+	// The arguments of inlined calls, as a stack.  Those of the call being evaluated start at inlineBase.
+	Value[] inlineArguments = new Value[16];
+	int inlineTop = 0;
+	int inlineBase = 0;
+
+	// When each DELAY is due, from when the program starts
+	final Scheduler.Timeline timeline = new Scheduler.Timeline();
+
+	// Names the colours of LEDs for INFO
+	final ColourClassifier classifier;
+
+	// Where INFO prints, and WRITE too unless the frames go elsewhere
+	final FrameWriter output;
+
+	// Where WRITE sends frames
+	final LedSink sink;
+
+	// Shows WRITEs at a fixed frame rate, if asked to
+	private Renderer renderer = null;
+
+	// Where SAVE records each array, by name, if asked to record rather than save text
+	private HashMap<String, FrameRecorder> recorders = null;
+
+	/** Ctor, given the number of slots needed by the program's variables. */
+	Context(ColourClassifier classifier, int slotCount) {
+		this(classifier, slotCount, new FrameWriter(System.out, FrameWriter.Flush.FRAME));
+	}
+
+	/** Ctor, given the number of slots needed by the program's variables and where it prints. */
+	Context(ColourClassifier classifier, int slotCount, FrameWriter output) {
+		this(classifier, slotCount, output, output);
+	}
+
+	/** Ctor, given the number of slots needed by the program's variables, where it prints,
+	 * and where its WRITEs go.  The sink is left open, as it may be shared. */
+	Context(ColourClassifier classifier, int slotCount, FrameWriter output, LedSink sink) {
+		this.classifier = classifier;
+		this.output = output;
+		this.sink = sink;
+		scope = new Display(slotCount);
+	}
+
+	/** Show WRITEs at a fixed number of frames a second, instead of printing each as it happens. */
+	void render(double framesPerSecond) {
+		renderer = new Renderer(sink, framesPerSecond);
+	}
+
+	/** Record each SAVE of an array as a frame of <name>.led, instead of saving <name>.txt. */
+	void recordSaves() {
+		recorders = new HashMap<String, FrameRecorder>();
+	}
+
+	/** SAVE an LED array. */
+	void save(LedArray array) {
+		if (recorders == null) {
+			LedPrinter.save(array);
+			return;
+		}
+		FrameRecorder recorder = recorders.get(array.getName());
+		if (recorder == null) {
+			recorder = new FrameRecorder(array.getName() + ".led", array);
+			recorders.put(array.getName(), recorder);
+		}
+		recorder.write(array);
+	}
+
+	/** WRITE an LED array, and mark it clean. */
+	void write(LedArray array) {
+		if (renderer != null)
+			renderer.present(array);
+		else
+			sink.write(array);
+		array.markClean();
+	}
+
+	/** INFO an LED array. */
+	void info(LedArray array) {
+		output.info(array, classifier);
+	}
+
+	/** DELAY for a number of seconds, once what has been printed is written out. */
+	void delay(Value seconds) {
+		flush();
+		timeline.delay(seconds);
+	}
+
+	/** Delay for a number of nanoseconds, once what has been printed is written out. */
+	void delay(long nanoseconds) {
+		flush();
+		timeline.delay(nanoseconds);
+	}
+
+	/** Write out what has been printed so far. */
+	void flush() {
+		if (sink != output)
+			sink.flush();
+		output.flush();
+	}
+
+	/** Finish with this context once its program has run, showing any frames not yet shown. */
+	void finish() {
+		try {
+			if (renderer != null)
+				renderer.stop();
+		} finally {
+			flush();
+			if (recorders != null)
+				for (FrameRecorder recorder : recorders.values())
+					recorder.close();
+		}
+	}
+}
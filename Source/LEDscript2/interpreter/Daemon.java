@@ -0,0 +1,200 @@
+package LEDscript2.interpreter;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import LEDscript2.leds.*;
+import LEDscript2.parser.ASTCode;
+
+/** Runs scripts sent to it over a socket, in a JVM that stays up between them, so that
+ * a short script doesn't pay for starting a JVM and warming up its JIT every time.
+ *
+ * It listens on the loopback address only.  A submission is a line of options, the
+ * same as Interpreter takes for an engine and its output, then the script, up to the
+ * end of what is sent.  What the script prints is streamed back as it runs, and the
+ * connection is closed when it finishes.  So DaemonClient, or a tool such as nc, can
+ * submit scripts.
+ *
+ * Each script runs on a thread of its own, in a Context of its own, printing only to
+ * its own connection, so scripts run at once don't see each other.  An error stops
+ * only the script that made it, and is sent back as it would have been printed.
+ *
+ * The programs of the scripts most recently sent are kept, so that a script sent again,
+ * or by several clients at once, is only parsed once.  Running a program doesn't change
+ * it, so every run shares the one tree.
+ */
+class Daemon {
+
+	/** The port listened on unless another is given. */
+	static final int defaultPort = 7283;
+
+	private static final Charset utf8 = Charset.forName("UTF-8");
+
+	// The number of programs kept
+	private static final int kept = 64;
+
+	private final ServerSocket server;
+	private final ColourClassifier classifier;
+	private final ProgramCache cache;
+	private final long stackSize;
+	private int count = 0;
+
+	// The programs kept, by the hashes of their scripts, least recently run first
+	private final LinkedHashMap<String, ASTCode> programs = new LinkedHashMap<String, ASTCode>(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<String, ASTCode> eldest) {
+			return size() > kept;
+		}
+	};
+
+	/** Ctor, given the port to listen on, the colour names scripts use, where to keep
+	 * parsed programs, or null to parse every script, and the Java stack to run a script
+	 * on under an engine that uses it for calls. */
+	Daemon(int port, ColourClassifier classifier, ProgramCache cache, long stackSize) throws IOException {
+		server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		this.classifier = classifier;
+		this.cache = cache;
+		this.stackSize = stackSize;
+	}
+
+	/** Get the port listened on. */
+	int getPort() {
+		return server.getLocalPort();
+	}
+
+	/** Take scripts until the JVM is stopped. */
+	void run() throws IOException {
+		while (true) {
+			final Socket client = server.accept();
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					serve(client);
+				}
+			}, "sili-daemon-" + ++count);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	// Run the script a client sends, and send back what it prints.
+	private void serve(Socket client) {
+		try {
+			try {
+				InputStream in = client.getInputStream();
+				OutputStream out = new BufferedOutputStream(client.getOutputStream());
+				String error = null;
+				try {
+					String[] options = readLine(in).trim().split("\\s+");
+					run(options, in, out);
+				} catch (StackOverflowError e) {
+					error = "Function calls are nested too deeply.  Try -vm, which doesn't use the Java stack for calls.";
+				} catch (Throwable e) {
+					error = e.getMessage();
+				}
+				if (error != null)
+					out.write((error + System.getProperty("line.separator")).getBytes(utf8));
+				out.flush();
+			} finally {
+				client.close();
+			}
+		} catch (IOException e) {
+			// The client has gone, so there is no one to tell
+		}
+	}
+
+	// Run a script with the options given, printing to a client.
+	private void run(String[] options, InputStream source, OutputStream out) throws Throwable {
+		boolean visitor = false;
+		boolean bytecode = false;
+		boolean vm = false;
+		double framesPerSecond = 0;
+		FrameWriter.Flush flush = FrameWriter.Flush.FRAME;
+		boolean changesOnly = false;
+		for (int i = 0; i < options.length; i++) {
+			if (options[i].length() == 0)
+				continue;
+			else if (options[i].equals("-visitor"))
+				visitor = true;
+			else if (options[i].equals("-bytecode"))
+				bytecode = true;
+			else if (options[i].equals("-vm"))
+				vm = true;
+			else if (options[i].equals("-fps") && i + 1 < options.length && Interpreter.isRate(options[i + 1]))
+				framesPerSecond = Double.parseDouble(options[++i]);
+			else if (options[i].equals("-batch"))
+				flush = FrameWriter.Flush.BATCH;
+			else if (options[i].equals("-delta"))
+				changesOnly = true;
+			else
+				throw new ExceptionSemantic("The daemon doesn't take " + options[i]
+						+ ".  It takes -visitor, -bytecode, -vm, -fps <n>, -batch and -delta.");
+		}
+		ASTCode parser = program(Interpreter.readAll(source));
+		Statement program = Interpreter.compile(parser, visitor, bytecode, vm);
+		Context context = new Context(classifier, parser.slotCount, new FrameWriter(out, flush, changesOnly));
+		if (framesPerSecond > 0)
+			context.render(framesPerSecond);
+		try {
+			// -visitor and -bytecode are chosen over -vm
+			if (vm && !visitor && !bytecode)
+				program.execute(context);
+			else
+				executeOnStack(program, context);
+		} finally {
+			context.finish();
+		}
+	}
+
+	// Run a program on a thread with the Java stack the daemon was given, and wait for it.
+	// What it throws is thrown here.
+	private void executeOnStack(final Statement program, final Context context) throws Throwable {
+		final Throwable[] thrown = new Throwable[1];
+		Thread thread = new Thread(null, new Runnable() {
+			public void run() {
+				try {
+					program.execute(context);
+				} catch (Throwable e) {
+					thrown[0] = e;
+				}
+			}
+		}, Thread.currentThread().getName() + "-program", stackSize);
+		thread.start();
+		thread.join();
+		if (thrown[0] != null)
+			throw thrown[0];
+	}
+
+	// Get the program of a script, parsing it unless it is kept.
+	private ASTCode program(byte[] script) throws Exception {
+		String key = ProgramCache.hash(script);
+		synchronized (programs) {
+			ASTCode program = programs.get(key);
+			if (program != null)
+				return program;
+		}
+		// The parser closes what it reads at the end, so it is given a copy rather than the connection
+		ASTCode program = Interpreter.load(new ByteArrayInputStream(script), cache);
+		synchronized (programs) {
+			programs.put(key, program);
+		}
+		return program;
+	}
+
+	// Read a line of UTF-8 text, up to but not including its end.
+	private static String readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		for (int b = in.read(); b >= 0 && b != '\n'; b = in.read())
+			if (b != '\r')
+				line.write(b);
+		return new String(line.toByteArray(), utf8);
+	}
+}
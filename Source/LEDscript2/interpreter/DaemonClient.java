@@ -0,0 +1,72 @@
+package LEDscript2.interpreter;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/** Sends a script to a Daemon and prints what it prints, in place of running it in a
+ * JVM of its own.
+ *
+ * It only copies bytes, and uses nothing else of the interpreter, so that it starts as
+ * quickly as a JVM can.
+ */
+public class DaemonClient {
+
+	private static void usage() {
+		System.out.println("Usage: sili-client [-port <n>] [-visitor] [-bytecode] [-vm] [-fps <n>] [-batch] [-delta] [<source>]");
+		System.out.println("          -port <n> -- the port the daemon listens on, " + Daemon.defaultPort + " unless given");
+		System.out.println("          The other options are passed to the daemon, which runs the source named, or");
+		System.out.println("          standard input, as Interpreter would.");
+	}
+
+	public static void main(String args[]) throws IOException {
+		int port = Daemon.defaultPort;
+		StringBuilder options = new StringBuilder();
+		String source = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-port") && i + 1 < args.length)
+				port = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-fps") && i + 1 < args.length)
+				options.append(args[i]).append(' ').append(args[++i]).append(' ');
+			else if (args[i].startsWith("-"))
+				options.append(args[i]).append(' ');
+			else if (source == null)
+				source = args[i];
+			else {
+				usage();
+				return;
+			}
+		}
+		Socket daemon;
+		try {
+			daemon = new Socket(InetAddress.getLoopbackAddress(), port);
+		} catch (ConnectException e) {
+			System.out.println("No daemon is listening on port " + port + ".  Start one with -daemon.");
+			return;
+		}
+		try {
+			OutputStream out = daemon.getOutputStream();
+			out.write((options.toString().trim() + "\n").getBytes("UTF-8"));
+			InputStream in = (source != null) ? new FileInputStream(source) : System.in;
+			copy(in, out);
+			out.flush();
+			// The end of what is sent is the end of the script
+			daemon.shutdownOutput();
+			copy(daemon.getInputStream(), System.out);
+			System.out.flush();
+		} finally {
+			daemon.close();
+		}
+	}
+
+	// Copy one stream to another until the first ends.
+	private static void copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buffer = new byte[8192];
+		for (int count = in.read(buffer); count >= 0; count = in.read(buffer))
+			out.write(buffer, 0, count);
+	}
+}
@@ -1,5 +1,7 @@
 package  LEDscript2.interpreter;
 
+import java.util.Arrays;
+
 import LEDscript2.values.Value;
 
 /** A display manages run-time access to variable and parameter scope where
@@ -7,42 +9,24 @@ import LEDscript2.values.Value;
  */ 
 class Display {
 
-	private final int maximumFunctionNesting = 64;
-	private FunctionInvocation[] display = new FunctionInvocation[maximumFunctionNesting];
+	// Function nesting the display starts with.  It grows if functions nest deeper.
+	private final int initialFunctionNesting = 16;
+	private FunctionInvocation[] display = new FunctionInvocation[initialFunctionNesting];
 	private int currentLevel;
 
-	/** Reference to a slot. */
-	class Reference {
-		private int displayDepth;
-		private int slotNumber;
-		
-		/** Ctor */
-		Reference(int depth, int slot) {
-			displayDepth = depth;
-			slotNumber = slot;
-		}
-		
-		/** Set value pointed to by this reference. */
-		void setValue(Value v) {
-			display[displayDepth].setValue(slotNumber, v);
-		}
-		
-		/** Get value pointed to by this reference. */
-		Value getValue() {
-			return display[displayDepth].getValue(slotNumber);
-		}
-	}
-	
-	/** Ctor */
-	Display() {
+	/** Ctor, given the number of slots needed by the variables of the root scope. */
+	Display(int slotCount) {
 		// root or 0th scope
 		currentLevel = 0;
-		display[currentLevel] = new FunctionInvocation(new FunctionDefinition("%main", currentLevel));
+		display[currentLevel] = new FunctionInvocation(new FunctionDefinition("%main", currentLevel, slotCount));
 	}
 	
-	/** Execute a function in its scope, using a specified parser. */
+	/** Execute a function in its scope, using a specified parser.  The invocation is
+	 * released once it returns. */
 	Value execute(FunctionInvocation fn, Parser p) {
 		int changeLevel = fn.getLevel();
+		if (changeLevel >= display.length)
+			display = Arrays.copyOf(display, changeLevel * 2);
 		FunctionInvocation oldContext = display[changeLevel];
 		int oldLevel = currentLevel;
 		display[changeLevel] = fn;
@@ -50,6 +34,23 @@ class Display {
 		Value v = display[currentLevel].execute(p);
 		display[changeLevel] = oldContext;
 		currentLevel = oldLevel;
+		fn.release();
+		return v;
+	}
+	
+	/** Execute a compiled function in its scope.  The invocation is released once it returns. */
+	Value execute(FunctionInvocation fn, Context context) {
+		int changeLevel = fn.getLevel();
+		if (changeLevel >= display.length)
+			display = Arrays.copyOf(display, changeLevel * 2);
+		FunctionInvocation oldContext = display[changeLevel];
+		int oldLevel = currentLevel;
+		display[changeLevel] = fn;
+		currentLevel = changeLevel;
+		Value v = display[currentLevel].execute(context);
+		display[changeLevel] = oldContext;
+		currentLevel = oldLevel;
+		fn.release();
 		return v;
 	}
 	
@@ -58,21 +59,17 @@ class Display {
 		return currentLevel;
 	}
 	
-	/** Return a Reference to a variable or parameter.  Return null if it doesn't exist. */
-	Reference findReference(String name) {
-		int level = currentLevel;
-		while (level >= 0) {
-			int offset = display[level].findSlotNumber(name);
-			if (offset >= 0)
-				return new Reference(level, offset);
-			level--;
-		}
-		return null;		
+	/** Get the value of a variable or parameter at a given level and slot.  Return null if
+	 * it doesn't exist or hasn't been given a value. */
+	Value getValue(int level, int slot) {
+		if (level < 0)
+			return null;
+		return display[level].getValue(slot);
 	}
 
-	/** Create a variable in the current level and return its Reference. */
-	Reference defineVariable(String name) {
-		return new Reference(currentLevel, display[currentLevel].defineVariable(name));
+	/** Set the value of a variable or parameter at a given level and slot. */
+	void setValue(int level, int slot, Value v) {
+		display[level].setValue(slot, v);
 	}
 
 	/** Find a function.  Return null if it doesn't exist. */
@@ -0,0 +1,329 @@
+package LEDscript2.interpreter;
+
+import java.util.Arrays;
+
+import LEDscript2.values.*;
+
+/** A compiled expression.
+ *
+ * Each kind of expression is its own final subclass, so evaluating one is a direct
+ * call on a known type rather than a visit through SiliVisitor.  Children are held
+ * in fields, not looked up in the AST.
+ */
+abstract class Expression {
+
+	/** Evaluate this expression. */
+	abstract Value evaluate(Context context);
+
+	/** A literal. */
+	static final class Literal extends Expression {
+		private final Value value;
+
+		Literal(Value value) {
+			this.value = value;
+		}
+
+		Value evaluate(Context context) {
+			return value;
+		}
+	}
+
+	/** A variable or parameter. */
+	static final class Dereference extends Expression {
+		private final String name;
+		private final int level;
+		private final int slot;
+
+		Dereference(String name, int level, int slot) {
+			this.name = name;
+			this.level = level;
+			this.slot = slot;
+		}
+
+		Value evaluate(Context context) {
+			Value value = context.scope.getValue(level, slot);
+			if (value == null)
+				throw new ExceptionSemantic("Variable or parameter " + name + " is undefined.");
+			return value;
+		}
+	}
+
+	/** A parameter of an inlined function, read from the arguments of the call being evaluated. */
+	static final class InlineArgument extends Expression {
+		private final int slot;
+
+		InlineArgument(int slot) {
+			this.slot = slot;
+		}
+
+		Value evaluate(Context context) {
+			return context.inlineArguments[context.inlineBase + slot];
+		}
+	}
+
+	/** The function a call names, and how to call it.  The function is found and checked
+	 * on first use, and kept at the call's site in the context: if it can be inlined, its
+	 * inline form is evaluated in place, otherwise the arguments go straight into a new
+	 * invocation. */
+	static final class CallSite {
+		private final String name;
+		private final Expression[] arguments;
+		private final int site;
+
+		CallSite(String name, Expression[] arguments, int site) {
+			this.name = name;
+			this.arguments = arguments;
+			this.site = site;
+		}
+
+		/** Call the function and return its value.  An invocation in an expression must have a return value. */
+		Value call(Context context, boolean inExpression) {
+			FunctionDefinition function = (FunctionDefinition) context.sites[site];
+			if (function == null) {
+				FunctionDefinition fndef = context.scope.findFunction(name);
+				if (fndef == null)
+					throw new ExceptionSemantic("Function " + name + " is undefined.");
+				if (inExpression && !fndef.hasReturn())
+					throw new ExceptionSemantic(
+							"Function " + name + " is being invoked in an expression but does not have a return value.");
+				fndef.checkArgumentCount(arguments.length);
+				context.sites[site] = fndef;
+				function = fndef;
+			}
+			Expression inline = function.getInlineFunction();
+			if (inline != null) {
+				// Arguments may make calls of their own, inlined above these
+				int base = context.inlineTop;
+				context.inlineTop += arguments.length;
+				if (context.inlineTop > context.inlineArguments.length)
+					context.inlineArguments = Arrays.copyOf(context.inlineArguments, context.inlineTop * 2);
+				for (int i = 0; i < arguments.length; i++)
+					context.inlineArguments[base + i] = arguments[i].evaluate(context);
+				context.inlineBase = base;
+				Value v = inline.evaluate(context);
+				context.inlineTop = base;
+				return v;
+			}
+			FunctionInvocation newInvocation = function.newInvocation();
+			for (int i = 0; i < arguments.length; i++)
+				newInvocation.setArgument(i, arguments[i].evaluate(context));
+			return context.scope.execute(newInvocation, context);
+		}
+	}
+
+	/** A function invocation. */
+	static final class Invoke extends Expression {
+		private final CallSite site;
+
+		Invoke(CallSite site) {
+			this.site = site;
+		}
+
+		Value evaluate(Context context) {
+			return site.call(context, true);
+		}
+	}
+
+	/** The body of a function, followed by its return expression if it has one. */
+	static final class FunctionBody extends Expression {
+		private final Statement body;
+		private final Expression returnExpression;
+
+		FunctionBody(Statement body, Expression returnExpression) {
+			this.body = body;
+			this.returnExpression = returnExpression;
+		}
+
+		Value evaluate(Context context) {
+			body.execute(context);
+			if (returnExpression != null)
+				return returnExpression.evaluate(context);
+			return null;
+		}
+	}
+
+	/** A unary operator. */
+	abstract static class Unary extends Expression {
+		final Expression operand;
+
+		Unary(Expression operand) {
+			this.operand = operand;
+		}
+	}
+
+	/** NOT */
+	static final class Not extends Unary {
+		Not(Expression operand) {
+			super(operand);
+		}
+
+		Value evaluate(Context context) {
+			return operand.evaluate(context).not();
+		}
+	}
+
+	/** + (unary) */
+	static final class Plus extends Unary {
+		Plus(Expression operand) {
+			super(operand);
+		}
+
+		Value evaluate(Context context) {
+			return operand.evaluate(context).unary_plus();
+		}
+	}
+
+	/** - (unary) */
+	static final class Minus extends Unary {
+		Minus(Expression operand) {
+			super(operand);
+		}
+
+		Value evaluate(Context context) {
+			return operand.evaluate(context).unary_minus();
+		}
+	}
+
+	/** A binary operator. */
+	abstract static class Binary extends Expression {
+		final Expression left;
+		final Expression right;
+
+		Binary(Expression left, Expression right) {
+			this.left = left;
+			this.right = right;
+		}
+	}
+
+	/** OR */
+	static final class Or extends Binary {
+		Or(Expression left, Expression right) {
+			super(left, right);
+		}
+
+		Value evaluate(Context context) {
+			return left.evaluate(context).or(right.evaluate(context));
+		}
+	}
+
+	/** AND */
+	static final class And extends Binary {
+		And(Expression left, Expression right) {
+			super(left, right);
+		}
+
+		Value evaluate(Context context) {
+			return left.evaluate(context).and(right.evaluate(context));
+		}
+	}
+
+	/** == */
+	static final class Equal extends Binary {
+		Equal(Expression left, Expression right) {
+			super(left, right);
+		}
+
+		Value evaluate(Context context) {
+			return left.evaluate(context).eq(right.evaluate(context));
+		}
+	}
+
+	/** != */
+	static final class NotEqual extends Binary {
+		NotEqual(Expression left, Expression right) {
+			super(left, right);
+		}
+
+		Value evaluate(Context context) {
+			return left.evaluate(context).neq(right.evaluate(context));
+		}
+	}
+
+	/** >= */
+	static final class GreaterOrEqual extends Binary {
+		GreaterOrEqual(Expression left, Expression right) {
+			super(left, right);
+		}
+
+		Value evaluate(Context context) {
+			return left.evaluate(context).gte(right.evaluate(context));
+		}
+	}
+
+	/** <= */
+	static final class LessOrEqual extends Binary {
+		LessOrEqual(Expression left, Expression right) {
+			super(left, right);
+		}
+
+		Value evaluate(Context context) {
+			return left.evaluate(context).lte(right.evaluate(context));
+		}
+	}
+
+	/** > */
+	static final class Greater extends Binary {
+		Greater(Expression left, Expression right) {
+			super(left, right);
+		}
+
+		Value evaluate(Context context) {
+			return left.evaluate(context).gt(right.evaluate(context));
+		}
+	}
+
+	/** < */
+	static final class Less extends Binary {
+		Less(Expression left, Expression right) {
+			super(left, right);
+		}
+
+		Value evaluate(Context context) {
+			return left.evaluate(context).lt(right.evaluate(context));
+		}
+	}
+
+	/** +  results above 255 are held at 255 */
+	static final class Add extends Binary {
+		Add(Expression left, Expression right) {
+			super(left, right);
+		}
+
+		Value evaluate(Context context) {
+			return left.evaluate(context).addClamped(right.evaluate(context), null, ValueInteger.MAX_CHANNEL);
+		}
+	}
+
+	/** -  results below 1 are held at 1 */
+	static final class Subtract extends Binary {
+		Subtract(Expression left, Expression right) {
+			super(left, right);
+		}
+
+		Value evaluate(Context context) {
+			return left.evaluate(context).subtractClamped(right.evaluate(context), ValueInteger.MIN_CHANNEL, null);
+		}
+	}
+
+	/** *  results above 255 are held at 255 */
+	static final class Times extends Binary {
+		Times(Expression left, Expression right) {
+			super(left, right);
+		}
+
+		Value evaluate(Context context) {
+			return left.evaluate(context).multClamped(right.evaluate(context), null, ValueInteger.MAX_CHANNEL);
+		}
+	}
+
+	/** /  results above 255 are held at 255 */
+	static final class Divide extends Binary {
+		Divide(Expression left, Expression right) {
+			super(left, right);
+		}
+
+		Value evaluate(Context context) {
+			return left.evaluate(context).divClamped(right.evaluate(context), null, ValueInteger.MAX_CHANNEL);
+		}
+	}
+}
@@ -4,6 +4,7 @@ import java.util.Vector;
 
 import LEDscript2.parser.*;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.io.Serializable;
 
@@ -18,16 +19,25 @@ class FunctionDefinition implements Comparable<Object>, Serializable {
 	private String name;
 	private String parmSignature = "";
 	private Vector<String> parameters = new Vector<String>();
-	private HashMap<String, Integer> slots = new HashMap<String, Integer>();
 	private HashMap<String, FunctionDefinition> functions = new HashMap<String, FunctionDefinition>();
 	private SimpleNode ASTFunctionBody = null;
 	private SimpleNode ASTFunctionReturnExpression = null;
+	private boolean inlinable = false;
+	private transient Expression compiledFunction = null;
+	private transient Expression inlineFunction = null;
+	private boolean compiledHasReturn = false;
+	private transient RegisterCode registerCode = null;
 	private int depth;
+	private int slotCount;
+	// Invocations that have returned, kept to be used again
+	private transient FunctionInvocation[] freeInvocations = null;
+	private transient int freeInvocationCount = 0;
 	
-	/** Ctor for function definition. */
-	FunctionDefinition(String functionName, int level) {
+	/** Ctor for function definition, given the number of slots its variables and parameters need. */
+	FunctionDefinition(String functionName, int level, int slots) {
 		name = functionName;
 		depth = level;
+		slotCount = slots;
 	}
 	
 	/** Get the depth of this definition.
@@ -65,6 +75,52 @@ class FunctionDefinition implements Comparable<Object>, Serializable {
 		return ASTFunctionReturnExpression;
 	}
 	
+	/** Set whether this function can be inlined.  That is, it is nothing but a return
+	 * expression that makes no calls. */
+	void setInlinable(boolean inlinable) {
+		this.inlinable = inlinable;
+	}
+	
+	/** True if this function can be inlined. */
+	boolean isInlinable() {
+		return inlinable;
+	}
+	
+	/** Set the compiled form of this function, which runs its body and returns the
+	 * value of its return expression, or null if it has none. */
+	void setCompiledFunction(Expression function, boolean hasReturn) {
+		compiledFunction = function;
+		compiledHasReturn = hasReturn;
+	}
+	
+	/** Get the compiled form of this function. */
+	Expression getCompiledFunction() {
+		return compiledFunction;
+	}
+	
+	/** Set the inline form of this function, which is its return expression compiled to
+	 * read its parameters from Context.inlineArguments. */
+	void setInlineFunction(Expression function) {
+		inlineFunction = function;
+		inlinable = true;
+	}
+	
+	/** Get the inline form of this function.  Return null if it can't be inlined. */
+	Expression getInlineFunction() {
+		return inlineFunction;
+	}
+	
+	/** Set the lowered form of this function, for RegisterMachine. */
+	void setRegisterCode(RegisterCode code) {
+		registerCode = code;
+		compiledHasReturn = code.hasReturn;
+	}
+	
+	/** Get the lowered form of this function. */
+	RegisterCode getRegisterCode() {
+		return registerCode;
+	}
+	
 	/** Get the signature of this function. */
 	String getSignature() {
 		return (hasReturn() ? "value " : "") + getName() + "(" + parmSignature + ")";
@@ -72,7 +128,7 @@ class FunctionDefinition implements Comparable<Object>, Serializable {
 	
 	/** True if this function has a return value. */
 	boolean hasReturn() {
-		return (ASTFunctionReturnExpression != null);
+		return (ASTFunctionReturnExpression != null || compiledHasReturn);
 	}
 	
 	/** Comparison operator.  Functions of the same name are the same. */
@@ -96,31 +152,38 @@ class FunctionDefinition implements Comparable<Object>, Serializable {
 			throw new ExceptionSemantic("Parameter " + name + " already exists in function " + getName());
 		parameters.add(name);
 		parmSignature += ((parmSignature.length()==0) ? name : (", " + name));
-		defineVariable(name);
+	}
+	
+	/** Check the number of arguments passed by a call.  A call site checks this once,
+	 * when it first finds this function. */
+	void checkArgumentCount(int argumentCount) {
+		if (argumentCount > getParameterCount())
+			throw new ExceptionSemantic("Function " + getSignature() + " expected " + getParameterCount() + " arguments but got " + (getParameterCount() + 1) + ".");
+		if (argumentCount < getParameterCount())
+			throw new ExceptionSemantic("Function " + getSignature() + " expected " + getParameterCount() + " arguments but got " + (argumentCount + 1) + ".");
 	}
 	
 	/** Get count of local variables and parameters. */
-	int getLocalCount() {
-		return slots.size();
-	}
-	
-	/** Get the storage slot number of a given variable or parm.  Return -1 if it doesn't exist. */
-	int getLocalSlotNumber(String name) {
-		Integer slot = slots.get(name);
-		if (slot == null)
-			return -1;
-		return slot.intValue();
-	}
-	
-	/** Define a variable.  Return its slot number. */
-	int defineVariable(String name) {
-		Integer slot = slots.get(name);
-		if (slot != null)
-			return slot.intValue();
-		int slotNumber = slots.size();
-		slots.put(name, new Integer(slotNumber));
-		return slotNumber;
-	}	
+	int getSlotCount() {
+		return slotCount;
+	}
+	
+	/** Get an invocation of this function, reusing one that has returned if there is one.
+	 * Each invocation still active, as in recursion, has one of its own. */
+	FunctionInvocation newInvocation() {
+		if (freeInvocationCount > 0)
+			return freeInvocations[--freeInvocationCount];
+		return new FunctionInvocation(this);
+	}
+	
+	/** Give back an invocation of this function that has returned, so it can be used again. */
+	void releaseInvocation(FunctionInvocation invocation) {
+		if (freeInvocations == null)
+			freeInvocations = new FunctionInvocation[4];
+		else if (freeInvocationCount == freeInvocations.length)
+			freeInvocations = Arrays.copyOf(freeInvocations, freeInvocationCount * 2);
+		freeInvocations[freeInvocationCount++] = invocation;
+	}
 	
 	/** Add an inner function definition. */
 	void addFunction(FunctionDefinition definition) {
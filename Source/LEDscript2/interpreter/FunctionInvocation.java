@@ -1,6 +1,6 @@
 package LEDscript2.interpreter;
 
-import java.util.Vector;
+import java.util.Arrays;
 
 import LEDscript2.values.Value;
 
@@ -8,19 +8,12 @@ import LEDscript2.values.Value;
 class FunctionInvocation {
 
 	private FunctionDefinition function;
-	private int argumentCount = 0;
-	private Vector<Value> slots;
-	
-	private final void setSlot(int n, Value v) {
-		if (n >= slots.size())
-			slots.setSize(n + 1);
-		slots.set(n, v);
-	}
+	private Value[] slots;
 	
 	/** Ctor for user-defined function. */
 	FunctionInvocation(FunctionDefinition fndef) {
 		function = fndef;
-		slots = new Vector<Value>(function.getLocalCount());
+		slots = new Value[function.getSlotCount()];
 	}
 	
 	/** Get the level of the associated function. */
@@ -28,18 +21,10 @@ class FunctionInvocation {
 		return function.getLevel();
 	}
 	
-	/** Set an argument value. */
-	void setArgument(Value v) {
-		if (argumentCount >= function.getParameterCount())
-			throw new ExceptionSemantic("Function " + function.getSignature() + " expected " + function.getParameterCount() + " arguments but got " + (argumentCount + 1) + ".");
+	/** Set the ith argument value.  The call has already checked the argument count. */
+	void setArgument(int i, Value v) {
 		// First slots are always arguments
-		setSlot(argumentCount++, v);
-	}
-	
-	/** Check argument count. */
-	void checkArgumentCount() {
-		if (argumentCount < function.getParameterCount())
-			throw new ExceptionSemantic("Function " + function.getSignature() + " expected " + function.getParameterCount() + " arguments but got " + (argumentCount + 1) + ".");		
+		slots[i] = v;
 	}
 	
 	/** Execute this invocation. */
@@ -50,24 +35,26 @@ class FunctionInvocation {
 		return null;
 	}
 
-	/** Get the slot number of a given variable or parameter name.  Return -1 if not found. */
-	int findSlotNumber(String name) {
-		return function.getLocalSlotNumber(name);
+	/** Execute this invocation's compiled function. */
+	Value execute(Context context) {
+		return function.getCompiledFunction().evaluate(context);
 	}
-	
+
 	/** Get a variable or parameter value given a slot number. */
 	Value getValue(int slotNumber) {
-		return slots.get(slotNumber);
+		return slots[slotNumber];
 	}
 
 	/** Given a slot number, set its value. */
 	void setValue(int slotNumber, Value value) {
-		setSlot(slotNumber, value);
+		slots[slotNumber] = value;
 	}
 
-	/** Define a variable in the function definition.  Return its slot number. */
-	int defineVariable(String name) {
-		return function.defineVariable(name);
+	/** Finish with this invocation.  Its arguments and variables are cleared, and it goes
+	 * back to its function to be used by a later call. */
+	void release() {
+		Arrays.fill(slots, null);
+		function.releaseInvocation(this);
 	}
 	
 	/** Add a function definition. */
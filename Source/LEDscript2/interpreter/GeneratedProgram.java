@@ -0,0 +1,197 @@
+package LEDscript2.interpreter;
+
+import LEDscript2.leds.*;
+import LEDscript2.values.*;
+
+/** The base class of every class generated by BytecodeCompiler.
+ *
+ * A generated class holds a script's statements as plain Java code.  Anything that
+ * needs the interpreter's run-time state - variables, functions, LED arrays - is done
+ * through the methods here.  Variables are found at the level and slot given by the
+ * Resolver; the other methods cache what they look up against a site number allocated
+ * to it by the compiler.  An instance keeps what it looks up for one run, so each run
+ * has an instance of its own, made by newRun().  Generated classes live in their own class
+ * loader, so everything they use here is public or protected.
+ */
+public abstract class GeneratedProgram {
+
+	private Context context;
+	private final FunctionDefinition[] functions;
+	private final boolean[] defined;
+	private final LedArray[] arrays;
+
+	/** Ctor.  Allocate the given number of each kind of site. */
+	protected GeneratedProgram(int functionSites, int definitionSites, int ledSites) {
+		functions = new FunctionDefinition[functionSites];
+		defined = new boolean[definitionSites];
+		arrays = new LedArray[ledSites];
+	}
+
+	/** Make a new instance of the program, for a run of its own. */
+	protected abstract GeneratedProgram newRun();
+
+	/** Run the top level statements of the program. */
+	protected abstract void main();
+
+	/** Run the function with the given index, returning its value or null. */
+	protected abstract Value function(int index);
+
+	/** Run the program in the given context.  An instance can only be run once. */
+	final void run(Context context) {
+		if (this.context != null)
+			throw new ExceptionSemantic("A compiled program can only be run once.");
+		this.context = context;
+		main();
+	}
+
+	/** Get the value of a variable or parameter. */
+	protected final Value variable(int level, int slot, String name) {
+		Value value = context.scope.getValue(level, slot);
+		if (value == null)
+			throw new ExceptionSemantic("Variable or parameter " + name + " is undefined.");
+		return value;
+	}
+
+	/** Assign a value to a variable. */
+	protected final void assign(int level, int slot, Value value) {
+		context.scope.setValue(level, slot, value);
+	}
+
+	/** Hold an assigned integer to at least 1. */
+	protected static Value atLeastOne(Value value) {
+		return ValueInteger.assigned(value);
+	}
+
+	/** Get the boolean value of an IF test. */
+	protected static boolean ifTest(Value value) {
+		if (!(value instanceof ValueBoolean))
+			throw new ExceptionSemantic("The test expression of an if statement must be boolean.");
+		return value.booleanValue();
+	}
+
+	/** Get the boolean value of a FOR loop test. */
+	protected static boolean forTest(Value value) {
+		if (!(value instanceof ValueBoolean))
+			throw new ExceptionSemantic("The test expression of a for loop must be boolean.");
+		return value.booleanValue();
+	}
+
+	/** Define the function with the given index in the current scope, once. */
+	protected final void defineFunction(int site, String name, String[] parameters, int slotCount, boolean hasReturn,
+			int index) {
+		// Already defined?
+		if (defined[site])
+			return;
+		if (context.scope.findFunctionInCurrentLevel(name) != null)
+			throw new ExceptionSemantic("Function " + name + " already exists.");
+		FunctionDefinition currentFunctionDefinition = new FunctionDefinition(name, context.scope.getLevel() + 1, slotCount);
+		for (int i = 0; i < parameters.length; i++)
+			currentFunctionDefinition.defineParameter(parameters[i]);
+		context.scope.addFunction(currentFunctionDefinition);
+		currentFunctionDefinition.setCompiledFunction(new GeneratedFunction(this, index), hasReturn);
+		defined[site] = true;
+	}
+
+	/** Find a function to be called with a given number of arguments.  An invocation in an
+	 * expression must have a return value. */
+	protected final Object function(int site, String name, boolean inExpression, int argumentCount) {
+		FunctionDefinition fndef = functions[site];
+		if (fndef == null) {
+			fndef = context.scope.findFunction(name);
+			if (fndef == null)
+				throw new ExceptionSemantic("Function " + name + " is undefined.");
+			if (inExpression && !fndef.hasReturn())
+				throw new ExceptionSemantic(
+						"Function " + name + " is being invoked in an expression but does not have a return value.");
+			fndef.checkArgumentCount(argumentCount);
+			functions[site] = fndef;
+		}
+		return fndef;
+	}
+
+	/** Start an invocation of a function returned by function(). */
+	protected static Object invocation(Object function) {
+		return ((FunctionDefinition) function).newInvocation();
+	}
+
+	/** Pass the ith argument to an invocation returned by invocation(), and return the invocation. */
+	protected static Object argument(Object invocation, int i, Value value) {
+		((FunctionInvocation) invocation).setArgument(i, value);
+		return invocation;
+	}
+
+	/** Call a function given an invocation returned by invocation(), once its arguments are passed. */
+	protected final Value call(Object invocation) {
+		return context.scope.execute((FunctionInvocation) invocation, context);
+	}
+
+	/** DELAY */
+	protected final void delay(Value seconds) {
+		context.delay(seconds);
+	}
+
+	/** LEDS */
+	protected final void leds(int site, String name, long count) {
+		// Already defined?
+		if (defined[site])
+			return;
+		if (count > Integer.MAX_VALUE)
+			throw new ExceptionSemantic("LED array cannot have " + count + " LEDs.");
+		context.leds.define(name, (int) count);
+		defined[site] = true;
+	}
+
+	// Get an LED array, finding it on first use.
+	private LedArray array(int site, String name) {
+		LedArray array = arrays[site];
+		if (array == null) {
+			array = context.leds.find(name);
+			if (array == null)
+				throw new ExceptionSemantic("LED array " + name + " is undefined.");
+			arrays[site] = array;
+		}
+		return array;
+	}
+
+	/** UPDATE */
+	protected final void update(int site, String name, Value red, Value green, Value blue, Value light) {
+		int r = (int) red.doubleValue();
+		int g = (int) green.doubleValue();
+		int b = (int) blue.doubleValue();
+		long led = light.longValue();
+		LedArray array = array(site, name);
+		if (!array.contains(led))
+			throw new ExceptionSemantic("LED " + led + " is not in led array " + array.getName() + ".");
+		array.set((int) led, r, g, b);
+	}
+
+	/** WRITE */
+	protected final void write(int site, String name) {
+		context.write(array(site, name));
+	}
+
+	/** INFO */
+	protected final void info(int site, String name) {
+		context.info(array(site, name));
+	}
+
+	/** SAVE */
+	protected final void save(int site, String name) {
+		context.save(array(site, name));
+	}
+
+	/** Runs a generated function as the compiled form of a FunctionDefinition. */
+	private static final class GeneratedFunction extends Expression {
+		private final GeneratedProgram program;
+		private final int index;
+
+		GeneratedFunction(GeneratedProgram program, int index) {
+			this.program = program;
+			this.index = index;
+		}
+
+		Value evaluate(Context context) {
+			return program.function(index);
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package LEDscript2.interpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.nio.charset.Charset;
+import java.util.concurrent.ThreadFactory;
+
+import LEDscript2.leds.ColourClassifier;
+import LEDscript2.leds.FrameWriter;
+import LEDscript2.leds.LedSink;
+
+/** Runs many programs at once in one JVM, each on a thread of its own.
+ *
+ * Each program has its own Context, so programs share nothing but their colour names
+ * and the sink, if WRITEs go to one.  What each prints goes to standard output as it is
+ * printed, a line at a time, each line starting with the program's name, so that lines
+ * from programs printing at once don't mix.  Threads
+ * are virtual where the JVM has them, so that a program waiting at a DELAY costs next
+ * to nothing and thousands can run at once.  They are found by reflection, so this
+ * still builds and runs before Java 21, where each program gets a platform thread.
+ *
+ * The CPU time each program uses is measured on its thread.  The JVM can't measure a
+ * virtual thread's CPU time, so there it is the time the program ran for less the time
+ * it spent waiting at DELAYs.
+ */
+class Host {
+
+	/** A program started by a host. */
+	static final class Program implements Runnable {
+		private final String name;
+		private final Statement program;
+		private final Context context;
+		private final LinePrefixer console;
+		private final CountDownLatch finished = new CountDownLatch(1);
+		private String error = null;
+		private long cpuTime = 0;
+
+		Program(String name, Statement program, ColourClassifier classifier, int slotCount, double framesPerSecond,
+				FrameWriter.Flush flush, boolean changesOnly, boolean recordSaves, LedSink sink) {
+			this.name = name;
+			this.program = program;
+			console = new LinePrefixer(name, System.out);
+			FrameWriter output = new FrameWriter(console, flush, changesOnly);
+			context = new Context(classifier, slotCount, output, (sink != null) ? sink : output);
+			if (recordSaves)
+				context.recordSaves();
+			if (framesPerSecond > 0)
+				context.render(framesPerSecond);
+		}
+
+		public void run() {
+			ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			long cpuStart = threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : -1;
+			long start = System.nanoTime();
+			try {
+				try {
+					program.execute(context);
+				} finally {
+					context.finish();
+				}
+			} catch (StackOverflowError e) {
+				error = "Function calls are nested too deeply.  Try -vm, which doesn't use the Java stack for calls.";
+			} catch (Throwable e) {
+				error = e.getMessage();
+			}
+			long cpuEnd = (cpuStart >= 0) ? threads.getCurrentThreadCpuTime() : -1;
+			if (cpuStart >= 0 && cpuEnd >= 0)
+				cpuTime = cpuEnd - cpuStart;
+			else
+				cpuTime = System.nanoTime() - start - context.timeline.getWaited();
+			try {
+				if (error != null)
+					console.write((error + System.getProperty("line.separator")).getBytes(Charset.defaultCharset()));
+				console.close();
+			} catch (IOException e) {
+				// Standard output doesn't throw
+			}
+			finished.countDown();
+		}
+
+		/** Get the name the program was started with. */
+		String getName() {
+			return name;
+		}
+
+		/** Wait for the program to finish. */
+		void await() throws InterruptedException {
+			finished.await();
+		}
+
+		/** True once the program has finished. */
+		boolean isFinished() {
+			return finished.getCount() == 0;
+		}
+
+		/** Get the CPU time the program used, in nanoseconds, once it has finished. */
+		long getCpuTime() {
+			return cpuTime;
+		}
+	}
+
+	// Prints to a stream shared by programs, starting each line with a program's name.
+	// Only whole lines are printed, all those of a write in one write to the shared stream,
+	// so that they don't mix with others' lines.  The start of a line is kept until its end
+	// is written, or the stream is closed.
+	private static final class LinePrefixer extends OutputStream {
+		private final byte[] prefix;
+		private final OutputStream out;
+		private final ByteArrayOutputStream lines = new ByteArrayOutputStream();
+		private final ByteArrayOutputStream partial = new ByteArrayOutputStream();
+
+		LinePrefixer(String name, OutputStream out) {
+			prefix = (name + ": ").getBytes(Charset.defaultCharset());
+			this.out = out;
+		}
+
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		public synchronized void write(byte[] b, int off, int len) throws IOException {
+			int start = off;
+			for (int i = off; i < off + len; i++) {
+				if (b[i] != '\n')
+					continue;
+				lines.write(prefix, 0, prefix.length);
+				partial.writeTo(lines);
+				partial.reset();
+				lines.write(b, start, i + 1 - start);
+				start = i + 1;
+			}
+			partial.write(b, start, off + len - start);
+			if (lines.size() > 0) {
+				lines.writeTo(out);
+				lines.reset();
+			}
+		}
+
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		// Print the line not yet ended, if there is one, ending it.
+		public synchronized void close() throws IOException {
+			if (partial.size() > 0)
+				write(System.getProperty("line.separator").getBytes(Charset.defaultCharset()));
+			out.flush();
+		}
+	}
+
+	private final ColourClassifier classifier;
+	private final double framesPerSecond;
+	private final FrameWriter.Flush flush;
+	private final boolean changesOnly;
+	private final boolean recordSaves;
+	private final LedSink sink;
+	private final ExecutorService threads = newExecutor();
+
+	/** Ctor, given the colour names programs use, the frame rate at which their WRITEs
+	 * are shown, or 0 to print each as it happens, when their output is flushed, whether
+	 * WRITE prints only changes, whether SAVE records frames rather than saving text, and
+	 * the sink their WRITEs all go to, or null to print them with the rest. */
+	Host(ColourClassifier classifier, double framesPerSecond, FrameWriter.Flush flush, boolean changesOnly,
+			boolean recordSaves, LedSink sink) {
+		this.classifier = classifier;
+		this.framesPerSecond = framesPerSecond;
+		this.flush = flush;
+		this.changesOnly = changesOnly;
+		this.recordSaves = recordSaves;
+		this.sink = sink;
+	}
+
+	/** True if programs run on virtual threads. */
+	static boolean hasVirtualThreads() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	// Get an executor that runs each task on a new virtual thread, or a new platform
+	// thread where the JVM has no virtual threads.
+	private static ExecutorService newExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception e) {
+			return Executors.newCachedThreadPool(new ThreadFactory() {
+				private int count = 0;
+
+				public synchronized Thread newThread(Runnable task) {
+					Thread thread = new Thread(task, "sili-" + ++count);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+
+	/** Start running a program, compiled for this run only, given the number of slots
+	 * its variables need. */
+	Program start(String name, Statement program, int slotCount) {
+		Program started = new Program(name, program, classifier, slotCount, framesPerSecond, flush, changesOnly,
+				recordSaves, sink);
+		threads.execute(started);
+		return started;
+	}
+
+	/** Stop taking programs.  Those already started run to the end. */
+	void shutdown() {
+		threads.shutdown();
+	}
+}
@@ -1,35 +1,414 @@
 package LEDscript2.interpreter;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import LEDscript2.leds.*;
 import LEDscript2.parser.*;
 
 public class Interpreter {
 	
 	private static void usage() {
-		System.out.println("Usage: sili [-d1] < <source>");
+		System.out.println("Usage: sili [-d1] [-visitor] [-bytecode] [-vm] [-memory] [-threads] [-fps <n>] [-batch] [-delta]");
+		System.out.println("            [-sink <sink>] [-binary] [-cache] [-stack <size>] [-daemon [<port>]] [-palette <file>]");
+		System.out.println("            [<source> ...] [-replay <recording> ...]");
 		System.out.println("          -d1 -- output AST");
+		System.out.println("          -visitor -- run the AST directly instead of compiling it");
+		System.out.println("          -bytecode -- compile to JVM bytecode (needs a JDK)");
+		System.out.println("          -vm -- lower to register code and run it on a register machine");
+		System.out.println("          -memory -- report the bytes allocated while the program runs");
+		System.out.println("          -threads -- run each source on a thread of its own, starting each line it prints with");
+		System.out.println("             its name, and report the CPU time it uses");
+		System.out.println("          -fps <n> -- show WRITEs n times a second from a render thread, skipping frames written between");
+		System.out.println("          -batch -- write output in large batches rather than a frame at a time");
+		System.out.println("          -delta -- WRITE only the LEDs changed since an array was last written");
+		System.out.println("          -sink <sink> -- send WRITEs to a sink: console (the default), file:<path> to write");
+		System.out.println("             binary frames to a file or pipe, or udp:<host>[:<port>[:<universe>]] to send");
+		System.out.println("             them as Art-Net");
+		System.out.println("          -binary -- SAVE records a frame of <name>.led each time instead of saving <name>.txt");
+		System.out.println("          -replay <recording> -- WRITE the frames of a recording made by -binary in turn,");
+		System.out.println("             at -fps frames a second if given, instead of running a program");
+		System.out.println("          -cache -- keep parsed programs in ~/.sili/cache, so that a script run again isn't parsed again");
+		System.out.println("          -stack <size> -- the Java stack for a program run under an engine other than -vm, such as");
+		System.out.println("             512m or 2g, for scripts whose calls nest deeply.  1g unless given; -vm doesn't need it.");
+		System.out.println("          -daemon [<port>] -- stay up, running scripts sent by DaemonClient to a loopback port,");
+		System.out.println("             " + Daemon.defaultPort + " unless given, and sending back what they print");
+		System.out.println("          -palette <file> -- name colours from a palette of 'name red green blue' lines");
+		System.out.println("          Sources named after the options are run instead of standard input.  Under -vm");
+		System.out.println("          they are run together on one thread, taking turns at each DELAY; under -threads");
+		System.out.println("          they are run at once; otherwise they are run one after another.");
+	}
+	
+	// Get the number of bytes allocated so far by this thread.  Return -1 if the JVM can't tell.
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+	
+	// Java stack for a thread that runs a program under an engine other than -vm, unless
+	// -stack gives another size.  Those engines use some of it for each call a script makes,
+	// so deep recursion needs a deep stack.  It is only reserved, not used, until calls
+	// nest that deeply.
+	static final long defaultStackSize = 1L << 30;
+	
+	public static void main(final String args[]) {
+		Thread interpreter = new Thread(null, new Runnable() {
+			public void run() {
+				interpret(args);
+			}
+		}, "sili", stackSize(args));
+		interpreter.start();
+		try {
+			interpreter.join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
 	}
 	
-	public static void main(String args[]) {
+	private static void interpret(String args[]) {
 		boolean debugAST = false;
-		if (args.length == 1) {
-			if (args[0].equals("-d1"))
+		boolean visitor = false;
+		boolean bytecode = false;
+		boolean vm = false;
+		boolean memory = false;
+		boolean threads = false;
+		double framesPerSecond = 0;
+		FrameWriter.Flush flush = FrameWriter.Flush.FRAME;
+		boolean changesOnly = false;
+		String palette = null;
+		String sinkSpec = "console";
+		boolean recordSaves = false;
+		boolean caching = false;
+		int daemonPort = -1;
+		long stackSize = defaultStackSize;
+		ArrayList<String> sources = new ArrayList<String>();
+		ArrayList<String> recordings = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-d1"))
 				debugAST = true;
+			else if (args[i].equals("-visitor"))
+				visitor = true;
+			else if (args[i].equals("-bytecode"))
+				bytecode = true;
+			else if (args[i].equals("-vm"))
+				vm = true;
+			else if (args[i].equals("-memory"))
+				memory = true;
+			else if (args[i].equals("-threads"))
+				threads = true;
+			else if (args[i].equals("-fps") && i + 1 < args.length && isRate(args[i + 1]))
+				framesPerSecond = Double.parseDouble(args[++i]);
+			else if (args[i].equals("-batch"))
+				flush = FrameWriter.Flush.BATCH;
+			else if (args[i].equals("-delta"))
+				changesOnly = true;
+			else if (args[i].equals("-sink") && i + 1 < args.length)
+				sinkSpec = args[++i];
+			else if (args[i].equals("-binary"))
+				recordSaves = true;
+			else if (args[i].equals("-cache"))
+				caching = true;
+			else if (args[i].equals("-stack") && i + 1 < args.length && parseSize(args[i + 1]) >= 0)
+				stackSize = parseSize(args[++i]);
+			else if (args[i].equals("-daemon")) {
+				daemonPort = Daemon.defaultPort;
+				if (i + 1 < args.length && args[i + 1].matches("[0-9]{1,5}"))
+					daemonPort = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-replay") && i + 1 < args.length)
+				recordings.add(args[++i]);
+			else if (args[i].equals("-palette") && i + 1 < args.length)
+				palette = args[++i];
+			else if (!args[i].startsWith("-"))
+				sources.add(args[i]);
 			else {
 				usage();
 				return;
 			}
 		}
-		Sili language = new Sili(System.in);
+		LedSink sink = null;
 		try {
-			ASTCode parser = language.code();
-			SiliVisitor nodeVisitor;
-			if (debugAST)
-				nodeVisitor = new ParserDebugger();
+			ColourClassifier classifier = (palette != null) ? PaletteColours.load(palette) : StandardColours.INSTANCE;
+			sink = openSink(sinkSpec, changesOnly);
+			ProgramCache cache = caching ? new ProgramCache(ProgramCache.defaultDirectory()) : null;
+			if (daemonPort >= 0) {
+				Daemon daemon = new Daemon(daemonPort, classifier, cache, stackSize);
+				System.err.println("Listening on port " + daemon.getPort() + ".");
+				daemon.run();
+			} else if (!recordings.isEmpty())
+				for (String recording : recordings)
+					replay(recording, classifier, framesPerSecond, flush, changesOnly, sink);
+			else if (sources.isEmpty())
+				interpret(System.in, cache, classifier, debugAST, visitor, bytecode, vm, memory, framesPerSecond,
+						flush, changesOnly, recordSaves, sink);
+			else if (threads && !debugAST)
+				interpretConcurrently(sources, cache, classifier, visitor, bytecode, vm, framesPerSecond, flush,
+						changesOnly, recordSaves, sink);
+			else if (vm && !debugAST && sources.size() > 1)
+				interpretTogether(sources, cache, classifier, framesPerSecond, flush, changesOnly, recordSaves, sink);
 			else
-				nodeVisitor = new Parser();
-			parser.jjtAccept(nodeVisitor, null);
+				for (String source : sources)
+					interpret(new FileInputStream(source), cache, classifier, debugAST, visitor, bytecode, vm, memory,
+							framesPerSecond, flush, changesOnly, recordSaves, sink);
+		} catch (StackOverflowError e) {
+			System.out.println("Function calls are nested too deeply.  Try -vm, which doesn't use the Java stack for calls.");
 		} catch (Throwable e) {
 			System.out.println(e.getMessage());
+		} finally {
+			if (sink != null)
+				sink.close();
+		}
+	}
+	
+	// Open the sink WRITEs are sent to, given its spec.  Return null for the console,
+	// where each program prints through its own FrameWriter.
+	private static LedSink openSink(String spec, boolean changesOnly) {
+		if (spec.equals("console"))
+			return null;
+		if (spec.startsWith("file:") && spec.length() > 5)
+			return new FileSink(spec.substring(5), changesOnly);
+		if (spec.startsWith("udp:")) {
+			String[] parts = spec.substring(4).split(":");
+			if (parts.length >= 1 && parts.length <= 3 && parts[0].length() > 0) {
+				try {
+					int port = (parts.length > 1) ? Integer.parseInt(parts[1]) : ArtNetSink.port;
+					int universe = (parts.length > 2) ? Integer.parseInt(parts[2]) : 0;
+					if (port > 0 && port < 65536 && universe >= 0 && universe < 32768)
+						return new ArtNetSink(new InetSocketAddress(parts[0], port), universe, changesOnly);
+				} catch (NumberFormatException e) {
+				}
+			}
+		}
+		throw new ExceptionSemantic("Unknown sink " + spec + ".  Use console, file:<path> or udp:<host>[:<port>[:<universe>]].");
+	}
+	
+	// Run a program with the chosen engine.
+	private static void interpret(InputStream source, ProgramCache cache, ColourClassifier classifier,
+			boolean debugAST, boolean visitor, boolean bytecode, boolean vm, boolean memory, double framesPerSecond,
+			FrameWriter.Flush flush, boolean changesOnly, boolean recordSaves, LedSink sink) throws Exception {
+		if (debugAST) {
+			new Sili(source).code().jjtAccept(new ParserDebugger(), null);
+			return;
+		}
+		final ASTCode parser = load(source, cache);
+		Statement program = compile(parser, visitor, bytecode, vm);
+		Context context = newContext(classifier, parser.slotCount, flush, changesOnly, sink);
+		if (framesPerSecond > 0)
+			context.render(framesPerSecond);
+		if (recordSaves)
+			context.recordSaves();
+		long allocated = allocatedBytes();
+		try {
+			program.execute(context);
+		} finally {
+			context.finish();
+		}
+		if (memory) {
+			if (allocated < 0)
+				System.err.println("This JVM can't measure allocation.");
+			else
+				System.err.println("Allocated " + (allocatedBytes() - allocated) + " bytes while running.");
+		}
+	}
+	
+	// WRITE the frames of a recording in turn, at a number of frames a second, or as quickly
+	// as they load if that is 0.
+	private static void replay(String path, ColourClassifier classifier, double framesPerSecond,
+			FrameWriter.Flush flush, boolean changesOnly, LedSink sink) {
+		FrameRecording recording = new FrameRecording(path);
+		LedArray array = recording.newArray();
+		Context context = newContext(classifier, 0, flush, changesOnly, sink);
+		long period = (framesPerSecond > 0) ? Math.max(1, (long) (1e9 / framesPerSecond)) : 0;
+		try {
+			for (int frame = 0; frame < recording.getFrameCount(); frame++) {
+				recording.read(frame, array);
+				context.write(array);
+				if (period > 0)
+					context.delay(period);
+			}
+		} finally {
+			context.finish();
+		}
+	}
+	
+	/** Parse and resolve a program, or get it from the cache if there is one. */
+	static ASTCode load(InputStream source, ProgramCache cache) throws IOException, ParseException {
+		if (cache != null)
+			return cache.load(readAll(source));
+		ASTCode program = new Sili(source).code();
+		Resolver.resolve(program);
+		return program;
+	}
+	
+	// Read the whole of a source.
+	static byte[] readAll(InputStream source) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		for (int count = source.read(buffer); count >= 0; count = source.read(buffer))
+			bytes.write(buffer, 0, count);
+		return bytes.toByteArray();
+	}
+	
+	// Get a context that prints to standard output, and sends WRITEs to a sink, or prints
+	// them too if the sink is null, for a program that has this thread to itself.
+	private static Context newContext(ColourClassifier classifier, int slotCount, FrameWriter.Flush flush,
+			boolean changesOnly, LedSink sink) {
+		FrameWriter output = new FrameWriter(System.out, flush, changesOnly);
+		Context context = new Context(classifier, slotCount, output, (sink != null) ? sink : output);
+		// Nothing else waits on this thread
+		context.timeline.setSpin(true);
+		return context;
+	}
+	
+	/** Compile a resolved program for the chosen engine.  The default is Compiler.  What a
+	 * program finds as it runs is kept by the run, in its Context, Parser, RegisterMachine or
+	 * GeneratedProgram instance, so a compiled program can be run any number of times, and by
+	 * several threads at once.  No engine changes the tree, so it can be compiled again too. */
+	static Statement compile(final ASTCode parser, boolean visitor, boolean bytecode, boolean vm) {
+		Statement program;
+		if (visitor) {
+			program = new Statement() {
+				void execute(Context context) {
+					parser.jjtAccept(new Parser(context), null);
+				}
+			};
+		} else if (bytecode) {
+			final GeneratedProgram generated = new BytecodeCompiler().compile(parser);
+			program = new Statement() {
+				void execute(Context context) {
+					generated.newRun().run(context);
+				}
+			};
+		} else if (vm) {
+			final RegisterCode code = RegisterCompiler.compile(parser);
+			program = new Statement() {
+				void execute(Context context) {
+					new RegisterMachine(context).run(code);
+				}
+			};
+		} else
+			program = new Compiler().compile(parser);
+		return program;
+	}
+	
+	// Run several programs at once, each on a thread of its own, printing what each prints
+	// as it goes, with its name at the start of each line.  Once they have all finished,
+	// report the CPU time each used.  An error stops only the program that made it.
+	private static void interpretConcurrently(ArrayList<String> sources, ProgramCache cache, ColourClassifier classifier,
+			boolean visitor, boolean bytecode, boolean vm, double framesPerSecond, FrameWriter.Flush flush,
+			boolean changesOnly, boolean recordSaves, LedSink sink) throws Exception {
+		Host host = new Host(classifier, framesPerSecond, flush, changesOnly, recordSaves, sink);
+		ArrayList<Host.Program> programs = new ArrayList<Host.Program>();
+		for (String source : sources) {
+			try {
+				ASTCode parser = load(new FileInputStream(source), cache);
+				programs.add(host.start(source, compile(parser, visitor, bytecode, vm), parser.slotCount));
+			} catch (ParseException e) {
+				System.out.println(source + ": " + e.getMessage());
+			}
+		}
+		host.shutdown();
+		long cpuTime = 0;
+		for (Host.Program program : programs) {
+			program.await();
+			System.err.println(program.getName() + " used " + milliseconds(program.getCpuTime()) + "ms of CPU.");
+			cpuTime += program.getCpuTime();
+		}
+		System.err.println(programs.size() + " programs on " + (Host.hasVirtualThreads() ? "virtual" : "platform")
+				+ " threads used " + milliseconds(cpuTime) + "ms of CPU.");
+	}
+	
+	// Get the Java stack the main thread of the interpreter needs, given its options: that
+	// of -stack, or defaultStackSize, if it may run a program under an engine that uses the
+	// stack for calls, or else 0, for the JVM's default.  A program run under -threads runs
+	// on a thread of its own, and -daemon and -replay don't run one here.
+	private static long stackSize(String args[]) {
+		long size = defaultStackSize;
+		boolean debugAST = false;
+		boolean vm = false;
+		boolean javaStack = false;
+		boolean elsewhere = false;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-d1"))
+				debugAST = true;
+			else if (args[i].equals("-vm"))
+				vm = true;
+			else if (args[i].equals("-visitor") || args[i].equals("-bytecode"))
+				javaStack = true;
+			else if (args[i].equals("-threads") || args[i].equals("-daemon") || args[i].equals("-replay"))
+				elsewhere = true;
+			else if (args[i].equals("-stack") && i + 1 < args.length && parseSize(args[i + 1]) >= 0)
+				size = parseSize(args[++i]);
+		}
+		if (elsewhere && !debugAST)
+			return 0;
+		// -visitor and -bytecode are chosen over -vm
+		return (vm && !javaStack && !debugAST) ? 0 : size;
+	}
+	
+	// Get a size in bytes given as a number, or followed by k, m or g for kilobytes,
+	// megabytes or gigabytes.  Return -1 if an argument isn't one.
+	static long parseSize(String argument) {
+		if (!argument.matches("[0-9]{1,9}[kmgKMG]?"))
+			return -1;
+		char unit = Character.toLowerCase(argument.charAt(argument.length() - 1));
+		int shift = (unit == 'k') ? 10 : (unit == 'm') ? 20 : (unit == 'g') ? 30 : 0;
+		return Long.parseLong((shift > 0) ? argument.substring(0, argument.length() - 1) : argument) << shift;
+	}
+	
+	// True if an argument is a frame rate: a number above 0.
+	static boolean isRate(String argument) {
+		try {
+			return Double.parseDouble(argument) > 0;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+	
+	// Get nanoseconds as milliseconds, to a tenth.
+	private static String milliseconds(long nanoseconds) {
+		return String.valueOf(Math.round(nanoseconds / 1e5) / 10.0);
+	}
+	
+	// Run several programs on register machines that share this thread, each giving way
+	// to the others at a DELAY.  An error stops only the program that made it.
+	private static void interpretTogether(ArrayList<String> sources, ProgramCache cache, ColourClassifier classifier,
+			double framesPerSecond, FrameWriter.Flush flush, boolean changesOnly, boolean recordSaves, LedSink sink)
+			throws Exception {
+		Scheduler scheduler = new Scheduler();
+		for (final String source : sources) {
+			ASTCode parser = load(new FileInputStream(source), cache);
+			final Context context = newContext(classifier, parser.slotCount, flush, changesOnly, sink);
+			if (framesPerSecond > 0)
+				context.render(framesPerSecond);
+			if (recordSaves)
+				context.recordSaves();
+			final RegisterMachine machine = new RegisterMachine(context);
+			machine.start(RegisterCompiler.compile(parser));
+			scheduler.add(new Scheduler.Task() {
+				public long resume() {
+					try {
+						long delay = machine.resume();
+						if (delay == Scheduler.DONE)
+							context.finish();
+						else
+							context.flush();
+						return delay;
+					} catch (Throwable e) {
+						context.finish();
+						System.out.println(source + ": " + e.getMessage());
+						return Scheduler.DONE;
+					}
+				}
+			});
 		}
+		if (!scheduler.run())
+			throw new ExceptionSemantic("Interrupted during a delay.");
 	}
 }
@@ -1,19 +1,65 @@
 package LEDscript2.interpreter;
 
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
+import java.util.Arrays;
 
+import LEDscript2.leds.*;
 import LEDscript2.parser.*;
 import LEDscript2.values.*;
 
 public class Parser implements SiliVisitor {
-	// stores led arrays
-	String[][] lights = new String[10][1000];
-	String[][] colour = new String[10][1000];
-	int lednums[] = new int[10];
+	// stores led arrays: those of the context being run in, if any
+	private final LedRegistry leds;
 
-	// Scope display handler
-	private Display scope = new Display();
+	// names the colours of leds for INFO
+	private ColourClassifier classifier;
+
+	// where WRITE and INFO print
+	private FrameWriter output;
+
+	// the context being run in, if any, which handles WRITE
+	private Context context = null;
+
+	// Scope display handler, made when the program starts
+	private Display scope;
+
+	// What each site of the program has kept: the LED array or function it found or
+	// defined, or the value of its literal.  Made when the program starts, so that each
+	// Parser runs a tree without changing it.
+	private Object[] sites;
+
+	// When each DELAY is due
+	private Scheduler.Timeline timeline;
+
+	// The arguments of inlined calls, as a stack: those of the call whose return expression
+	// is being evaluated start at inlineBase, and inlineLevel is the level of its function's
+	// parameters.  No variable is at level notInlining.
+	private static final int notInlining = -2;
+	private Value[] inlineArguments = new Value[16];
+	private int inlineTop = 0;
+	private int inlineBase = 0;
+	private int inlineLevel = notInlining;
+
+	/** Ctor using the standard colour names. */
+	public Parser() {
+		this(StandardColours.INSTANCE);
+	}
+
+	/** Ctor using the given colour names. */
+	public Parser(ColourClassifier classifier) {
+		this.classifier = classifier;
+		leds = new LedRegistry();
+		output = new FrameWriter(System.out, FrameWriter.Flush.FRAME);
+		timeline = new Scheduler.Timeline();
+	}
+
+	/** Ctor using the colour names, led arrays, output and timeline of a context. */
+	Parser(Context context) {
+		classifier = context.classifier;
+		leds = context.leds;
+		output = context.output;
+		timeline = context.timeline;
+		this.context = context;
+	}
 
 	// Get the ith child of a given node.
 	private static SimpleNode getChild(SimpleNode node, int childIndex) {
@@ -36,6 +82,19 @@ public class Parser implements SiliVisitor {
 		return (Value) doChild(node, childIndex, null);
 	}
 
+	// Find the led array named by the ith child of a given node.  The name is a
+	// literal, so the array is looked up once and kept at the node's site.
+	private LedArray findLeds(SimpleNode node, int childIndex) {
+		if (sites[node.site] == null) {
+			String name = doChild(node, childIndex).stringValue();
+			LedArray array = leds.find(name);
+			if (array == null)
+				throw new ExceptionSemantic("LED array " + name + " is undefined.");
+			sites[node.site] = array;
+		}
+		return (LedArray) sites[node.site];
+	}
+
 	// Execute all children of the given node
 	Object doChildren(SimpleNode node, Object data) {
 		return node.childrenAccept(this, data);
@@ -49,6 +108,8 @@ public class Parser implements SiliVisitor {
 
 	// Execute a Sili program
 	public Object visit(ASTCode node, Object data) {
+		scope = new Display(node.slotCount);
+		sites = new Object[node.siteCount];
 		return doChildren(node, data);
 	}
 
@@ -65,13 +126,13 @@ public class Parser implements SiliVisitor {
 	// Function definition
 	public Object visit(ASTFnDef node, Object data) {
 		// Already defined?
-		if (node.optimised != null)
+		if (sites[node.site] != null)
 			return data;
 		// Child 0 - identifier (fn name)
 		String fnname = getTokenOfChild(node, 0);
 		if (scope.findFunctionInCurrentLevel(fnname) != null)
 			throw new ExceptionSemantic("Function " + fnname + " already exists.");
-		FunctionDefinition currentFunctionDefinition = new FunctionDefinition(fnname, scope.getLevel() + 1);
+		FunctionDefinition currentFunctionDefinition = new FunctionDefinition(fnname, scope.getLevel() + 1, node.slotCount);
 		// Child 1 - function definition parameter list
 		doChild(node, 1, currentFunctionDefinition);
 		// Add to available functions
@@ -81,9 +142,10 @@ public class Parser implements SiliVisitor {
 		// Child 3 - optional return expression
 		if (node.fnHasReturn)
 			currentFunctionDefinition.setFunctionReturnExpression(getChild(node, 3));
+		currentFunctionDefinition.setInlinable(node.inlinable);
 		// Preserve this definition for future reference, and so we don't define
 		// it every time this node is processed.
-		node.optimised = currentFunctionDefinition;
+		sites[node.site] = currentFunctionDefinition;
 		return data;
 	}
 
@@ -105,56 +167,67 @@ public class Parser implements SiliVisitor {
 		return doChildren(node, data);
 	}
 
+	// Find the function a call names, on first use, and check that it takes the call's
+	// arguments.  The function is kept at the node's site, so that this is done only once.
+	private FunctionDefinition link(SimpleNode node, boolean inExpression) {
+		if (sites[node.site] != null)
+			return (FunctionDefinition) sites[node.site];
+		// Child 0 - identifier (fn name)
+		String fnname = getTokenOfChild(node, 0);
+		FunctionDefinition fndef = scope.findFunction(fnname);
+		if (fndef == null)
+			throw new ExceptionSemantic("Function " + fnname + " is undefined.");
+		if (inExpression && !fndef.hasReturn())
+			throw new ExceptionSemantic(
+					"Function " + fnname + " is being invoked in an expression but does not have a return value.");
+		// Child 1 - arglist
+		fndef.checkArgumentCount(getChild(node, 1).jjtGetNumChildren());
+		// Save it for next time
+		sites[node.site] = fndef;
+		return fndef;
+	}
+
+	// Call a function and return its value.  If it can be inlined, its return expression
+	// is evaluated here, reading its parameters from inlineArguments; otherwise the
+	// arguments are evaluated straight into a new invocation.
+	private Value call(SimpleNode node, FunctionDefinition fndef) {
+		SimpleNode arglist = getChild(node, 1);
+		int argumentCount = arglist.jjtGetNumChildren();
+		if (fndef.isInlinable()) {
+			// Arguments may make calls of their own, inlined above these
+			int base = inlineTop;
+			inlineTop += argumentCount;
+			if (inlineTop > inlineArguments.length)
+				inlineArguments = Arrays.copyOf(inlineArguments, inlineTop * 2);
+			for (int i = 0; i < argumentCount; i++)
+				inlineArguments[base + i] = doChild(arglist, i);
+			// The return expression makes no calls, so nothing else is inlined while it's evaluated
+			inlineBase = base;
+			inlineLevel = fndef.getLevel();
+			Value v = doChild(fndef.getFunctionReturnExpression(), 0);
+			inlineLevel = notInlining;
+			inlineTop = base;
+			return v;
+		}
+		FunctionInvocation newInvocation = fndef.newInvocation();
+		for (int i = 0; i < argumentCount; i++)
+			newInvocation.setArgument(i, doChild(arglist, i));
+		return scope.execute(newInvocation, this);
+	}
+
 	// Function call
 	public Object visit(ASTCall node, Object data) {
-		FunctionDefinition fndef;
-		if (node.optimised == null) {
-			// Child 0 - identifier (fn name)
-			String fnname = getTokenOfChild(node, 0);
-			fndef = scope.findFunction(fnname);
-			if (fndef == null)
-				throw new ExceptionSemantic("Function " + fnname + " is undefined.");
-			// Save it for next time
-			node.optimised = fndef;
-		} else
-			fndef = (FunctionDefinition) node.optimised;
-		FunctionInvocation newInvocation = new FunctionInvocation(fndef);
-		// Child 1 - arglist
-		doChild(node, 1, newInvocation);
-		// Execute
-		scope.execute(newInvocation, this);
+		call(node, link(node, false));
 		return data;
 	}
 
 	// Function invocation in an expression
 	public Object visit(ASTFnInvoke node, Object data) {
-		FunctionDefinition fndef;
-		if (node.optimised == null) {
-			// Child 0 - identifier (fn name)
-			String fnname = getTokenOfChild(node, 0);
-			fndef = scope.findFunction(fnname);
-			if (fndef == null)
-				throw new ExceptionSemantic("Function " + fnname + " is undefined.");
-			if (!fndef.hasReturn())
-				throw new ExceptionSemantic(
-						"Function " + fnname + " is being invoked in an expression but does not have a return value.");
-			// Save it for next time
-			node.optimised = fndef;
-		} else
-			fndef = (FunctionDefinition) node.optimised;
-		FunctionInvocation newInvocation = new FunctionInvocation(fndef);
-		// Child 1 - arglist
-		doChild(node, 1, newInvocation);
-		// Execute
-		return scope.execute(newInvocation, this);
+		return call(node, link(node, true));
 	}
 
-	// Function invocation argument list.
+	// Function invocation argument list.  Evaluated by its call.
 	public Object visit(ASTArgList node, Object data) {
-		FunctionInvocation newInvocation = (FunctionInvocation) data;
-		for (int i = 0; i < node.jjtGetNumChildren(); i++)
-			newInvocation.setArgument(doChild(node, i));
-		newInvocation.checkArgumentCount();
 		return data;
 	}
 
@@ -199,72 +272,32 @@ public class Parser implements SiliVisitor {
 
 	// Execute the WRITE statement
 	public Object visit(ASTWrite node, Object data) {
-		System.out.println();
-		System.out.println("||-------------------------------------||");
-
-		// for each light array
-		for (int p = 0; p < 10; p++) {
-
-			// find how many rows of lights
-			int numlines = lednums[p] / 3;
-			if (lednums[p] % 3 != 0) {
-				numlines += 1;
-			}
-			// if teh name of teh led array is correct
-			if (colour[p][0].equals(doChild(node, 0).stringValue())) {
-				int counter = 1;
-				//print out teh elemetns of the light aray to the screen
-				// for the puroprse of this assignemt  a mock up of the array will be printed to screen
-				// to controll leds the write will need to be modified to output teh rgb values to the specified leds
-				for (int outc = 0; outc < numlines; outc++) {
-					System.out.println(
-							"||" + lights[p][counter] + "||" + lights[p][counter + 1] + "||" + lights[p][counter + 2]);
-					System.out.println("||-------------------------------------||");
-					counter += 3;
-
-				}
-				p += 100;
-			}
+		//print out teh elemetns of the light aray to the screen
+		if (context != null)
+			context.write(findLeds(node, 0));
+		else {
+			LedArray array = findLeds(node, 0);
+			output.write(array);
+			array.markClean();
 		}
-
 		return data;
 	}
 
 	// Dereference a variable or parameter, and return its value.
 	public Object visit(ASTDereference node, Object data) {
-		Display.Reference reference;
-		if (node.optimised == null) {
-			String name = node.tokenValue;
-			reference = scope.findReference(name);
-			if (reference == null)
-				throw new ExceptionSemantic("Variable or parameter " + name + " is undefined.");
-			node.optimised = reference;
-		} else
-			reference = (Display.Reference) node.optimised;
-		return reference.getValue();
+		if (node.level == inlineLevel)
+			return inlineArguments[inlineBase + node.slot];
+		Value value = scope.getValue(node.level, node.slot);
+		if (value == null)
+			throw new ExceptionSemantic("Variable or parameter " + node.tokenValue + " is undefined.");
+		return value;
 	}
 
 	// Execute an assignment statement.
 	public Object visit(ASTAssignment node, Object data) {
-		Display.Reference reference;
-		if (node.optimised == null) {
-			String name = getTokenOfChild(node, 0);
-			reference = scope.findReference(name);
-			if (reference == null)
-				reference = scope.defineVariable(name);
-			node.optimised = reference;
-		} else
-			reference = (Display.Reference) node.optimised;
-
-		//chekcs teh assigned int is between 1-255 
-		// if it is not it the number will be setr to teh nearest boundary
-		ValueInteger test = (ValueInteger) doChild(node, 1);
-		ValueInteger lower = new ValueInteger(1);
-		if (test.compare(lower) == -1) {
-			reference.setValue(lower);
-			return data;
-		}
-		reference.setValue(doChild(node, 1));
+		//chekcs teh assigned int is not below 1
+		// if it is the number will be setr to teh nearest boundary
+		scope.setValue(node.level, node.slot, ValueInteger.assigned(doChild(node, 1)));
 		return data;
 	}
 
@@ -308,44 +341,24 @@ public class Parser implements SiliVisitor {
 		return doChild(node, 0).lt(doChild(node, 1));
 	}
 
-	// +
+	// +  results above 255 are held at 255
 	public Object visit(ASTAdd node, Object data) {
-		ValueInteger uppertest = new ValueInteger(255);
-		ValueInteger totatl = (ValueInteger) doChild(node, 0).add(doChild(node, 1));
-		if (totatl.compare(uppertest) == 1) {
-			return uppertest;
-		}
-		return doChild(node, 0).add(doChild(node, 1));
+		return doChild(node, 0).addClamped(doChild(node, 1), null, ValueInteger.MAX_CHANNEL);
 	}
 
-	// -
+	// -  results below 1 are held at 1
 	public Object visit(ASTSubtract node, Object data) {
-		ValueInteger lowertest = new ValueInteger(1);
-		ValueInteger totatl = (ValueInteger) doChild(node, 0).subtract(doChild(node, 1));
-		if (totatl.compare(lowertest) == -1) {
-			return lowertest;
-		}
-		return doChild(node, 0).subtract(doChild(node, 1));
+		return doChild(node, 0).subtractClamped(doChild(node, 1), ValueInteger.MIN_CHANNEL, null);
 	}
 
-	// *
+	// *  results above 255 are held at 255
 	public Object visit(ASTTimes node, Object data) {
-		ValueInteger uppertest = new ValueInteger(255);
-		ValueInteger totatl = (ValueInteger) doChild(node, 0).mult(doChild(node, 1));
-		if (totatl.compare(uppertest) == 1) {
-			return uppertest;
-		}
-		return doChild(node, 0).mult(doChild(node, 1));
+		return doChild(node, 0).multClamped(doChild(node, 1), null, ValueInteger.MAX_CHANNEL);
 	}
 
-	// /
+	// /  results above 255 are held at 255
 	public Object visit(ASTDivide node, Object data) {
-		ValueInteger uppertest = new ValueInteger(255);
-		ValueInteger totatl = (ValueInteger) doChild(node, 0).div(doChild(node, 1));
-		if (totatl.compare(uppertest) == 1) {
-			return uppertest;
-		}
-		return doChild(node, 0).div(doChild(node, 1));
+		return doChild(node, 0).divClamped(doChild(node, 1), null, ValueInteger.MAX_CHANNEL);
 	}
 
 	// NOT
@@ -365,317 +378,131 @@ public class Parser implements SiliVisitor {
 
 	// Return string literal
 	public Object visit(ASTCharacter node, Object data) {
-		if (node.optimised == null)
-			node.optimised = ValueString.stripDelimited(node.tokenValue);
-		return node.optimised;
+		if (sites[node.site] == null)
+			sites[node.site] = ValueString.stripDelimited(node.tokenValue);
+		return sites[node.site];
 	}
 
 	// Return integer literal
 	public Object visit(ASTInteger node, Object data) {
 
-		if (node.optimised == null)
-			node.optimised = new ValueInteger(Long.parseLong(node.tokenValue));
-
-		ValueInteger uppertest = new ValueInteger(255);
-		ValueInteger numebr = (ValueInteger) node.optimised;
-		// checks number below 255
-		if (numebr.compare(uppertest) == 1) {
-			node.optimised = uppertest;
-			return node.optimised;
+		if (sites[node.site] == null) {
+			ValueInteger numebr = ValueInteger.of(Long.parseLong(node.tokenValue));
+			// checks number below 255
+			if (numebr.compare(ValueInteger.MAX_CHANNEL) == 1)
+				numebr = ValueInteger.MAX_CHANNEL;
+			sites[node.site] = numebr;
 		}
-		return node.optimised;
+		return sites[node.site];
 	}
 
 	// Return floating point literal
 	public Object visit(ASTRational node, Object data) {
-		if (node.optimised == null)
-			node.optimised = new ValueRational(Double.parseDouble(node.tokenValue));
-		return node.optimised;
+		if (sites[node.site] == null)
+			sites[node.site] = new ValueRational(Double.parseDouble(node.tokenValue));
+		return sites[node.site];
 	}
 
 	// Return true literal
 	public Object visit(ASTTrue node, Object data) {
-		if (node.optimised == null)
-			node.optimised = new ValueBoolean(true);
-		return node.optimised;
+		return ValueBoolean.TRUE;
 	}
 
 	// Return false literal
 	public Object visit(ASTFalse node, Object data) {
-		if (node.optimised == null)
-			node.optimised = new ValueBoolean(false);
-		return node.optimised;
+		return ValueBoolean.FALSE;
 	}
 
 	// addsteh giuven number from teh value. then checks it is still in teh
 	// boundaries
 	public Object visit(ASTAddassign node, Object data) {
-		Display.Reference reference;
-		if (node.optimised == null) {
-			String name = getTokenOfChild(node, 0);
-			reference = scope.findReference(name);
-			if (reference == null)
-				reference = scope.defineVariable(name);
-			node.optimised = reference;
-		} else
-			reference = (Display.Reference) node.optimised;
-
-		//checks numbers are in teh boundaary of 1-255
-		ValueInteger test = (ValueInteger) doChild(node, 0).add(doChild(node, 1));
-		ValueInteger lower = new ValueInteger(1);
-		ValueInteger upper = new ValueInteger(255);
-		if (test.compare(lower) == -1) {
-			reference.setValue(lower);
-			return data;
-		}
-		if (test.compare(upper) == 1) {
-			reference.setValue(upper);
-			return data;
-		}
-		reference.setValue(test);
+		//holds numbers in teh boundaary of 1-255
+		scope.setValue(node.level, node.slot, doChild(node, 0).addClamped(doChild(node, 1), ValueInteger.MIN_CHANNEL, ValueInteger.MAX_CHANNEL));
 		return data;
 	}
 
 	// subtract the given number from the value. then checks it is still in teh
 	// boundaries
 	public Object visit(ASTDecassign node, Object data) {
-		Display.Reference reference;
-		if (node.optimised == null) {
-			String name = getTokenOfChild(node, 0);
-			reference = scope.findReference(name);
-			if (reference == null)
-				reference = scope.defineVariable(name);
-			node.optimised = reference;
-		} else
-			reference = (Display.Reference) node.optimised;
-
-		//checks numbers are in teh boundaary of 1-255
-		ValueInteger test = (ValueInteger) doChild(node, 0).subtract(doChild(node, 1));
-		ValueInteger lower = new ValueInteger(1);
-		ValueInteger upper = new ValueInteger(255);
-
-		if (test.compare(lower) == -1) {
-			reference.setValue(lower);
-			return data;
-		}
-		if (test.compare(upper) == 1) {
-			reference.setValue(upper);
-			return data;
-		}
-		reference.setValue(test);
+		//holds numbers in teh boundaary of 1-255
+		scope.setValue(node.level, node.slot, doChild(node, 0).subtractClamped(doChild(node, 1), ValueInteger.MIN_CHANNEL, ValueInteger.MAX_CHANNEL));
 
 		return data;
 	}
 
 	// flips the current value
 	public Object visit(ASTflipassign node, Object data) {
-		Display.Reference reference;
-		if (node.optimised == null) {
-			String name = getTokenOfChild(node, 0);
-			reference = scope.findReference(name);
-			if (reference == null)
-				reference = scope.defineVariable(name);
-			node.optimised = reference;
-		} else
-			reference = (Display.Reference) node.optimised;
-
-		//checks numbers are in teh boundaary of 1-255
-		ValueInteger upper = new ValueInteger(255);
-		ValueInteger test = (ValueInteger) upper.subtract(doChild(node, 0));
-		ValueInteger lower = new ValueInteger(1);
-
-		if (test.compare(lower) == -1) {
-			reference.setValue(lower);
-			return data;
-		}
-		if (test.compare(upper) == 1) {
-			reference.setValue(upper);
-			return data;
-		}
-
-		reference.setValue(test);
+		//holds numbers in teh boundaary of 1-255
+		scope.setValue(node.level, node.slot, ValueInteger.MAX_CHANNEL.subtractClamped(doChild(node, 0), ValueInteger.MIN_CHANNEL,
+				ValueInteger.MAX_CHANNEL));
 		return data;
 	}
 
 	// multiplys teh current number by the specifided number and checks it in
 	// teh correct boundaries
 	public Object visit(ASTMultiassign node, Object data) {
-		Display.Reference reference;
-		if (node.optimised == null) {
-			String name = getTokenOfChild(node, 0);
-			reference = scope.findReference(name);
-			if (reference == null)
-				reference = scope.defineVariable(name);
-			node.optimised = reference;
-		} else
-			reference = (Display.Reference) node.optimised;
-
-		//checks numbers are in teh boundaary of 1-255
-		ValueInteger test = (ValueInteger) doChild(node, 0).mult(doChild(node, 1));
-		ValueInteger lower = new ValueInteger(1);
-		ValueInteger upper = new ValueInteger(255);
-
-		if (test.compare(lower) == -1) {
-			reference.setValue(lower);
-			return data;
-		}
-		if (test.compare(upper) == 1) {
-			reference.setValue(upper);
-			return data;
-		}
-		reference.setValue(test);
+		//holds numbers in teh boundaary of 1-255
+		scope.setValue(node.level, node.slot, doChild(node, 0).multClamped(doChild(node, 1), ValueInteger.MIN_CHANNEL, ValueInteger.MAX_CHANNEL));
 		return data;
 	}
 
 	// didivdes teh current number by the specifided number and checks it in teh
 	// correct boundaries
 	public Object visit(ASTDivassign node, Object data) {
-		Display.Reference reference;
-		if (node.optimised == null) {
-			String name = getTokenOfChild(node, 0);
-			reference = scope.findReference(name);
-			if (reference == null)
-				reference = scope.defineVariable(name);
-			node.optimised = reference;
-		} else
-			reference = (Display.Reference) node.optimised;
-
-		//checks numbers are in teh boundaary of 1-255
-		ValueInteger test = (ValueInteger) doChild(node, 0).div(doChild(node, 1));
-		ValueInteger lower = new ValueInteger(1);
-		ValueInteger upper = new ValueInteger(255);
-
-		if (test.compare(lower) == -1) {
-			reference.setValue(lower);
-			return data;
-		}
-		if (test.compare(upper) == 1) {
-			reference.setValue(upper);
-			return data;
-		}
-
-		reference.setValue(test);
+		//holds numbers in teh boundaary of 1-255
+		scope.setValue(node.level, node.slot, doChild(node, 0).divClamped(doChild(node, 1), ValueInteger.MIN_CHANNEL, ValueInteger.MAX_CHANNEL));
 
 		return data;
 	}
 
-	// waits for the number of seconds specified
+	// waits for the number of seconds specified, counted from when teh last delay was due
 	public Object visit(ASTDelay node, Object data) {
-		long store = doChild(node, 0).longValue();
-		try {
-			Thread.sleep(store * 1000);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
+		Value seconds = doChild(node, 0);
+		if (context != null) {
+			context.delay(seconds);
+			return null;
 		}
+		output.flush();
+		timeline.delay(seconds);
 		return null;
 	}
 
 	// sets teh identifier to store 1
 	public Object visit(ASTClear node, Object data) {
-		Display.Reference reference;
-		if (node.optimised == null) {
-			String name = getTokenOfChild(node, 0);
-			reference = scope.findReference(name);
-			if (reference == null)
-				reference = scope.defineVariable(name);
-			node.optimised = reference;
-		} else
-			reference = (Display.Reference) node.optimised;
-
-		ValueInteger set = new ValueInteger(1);
-		reference.setValue(set);
+		scope.setValue(node.level, node.slot, ValueInteger.MIN_CHANNEL);
 		return data;
 	}
 
 	// sets the identifier to store 255
 	public Object visit(ASTFill node, Object data) {
-		Display.Reference reference;
-		if (node.optimised == null) {
-			String name = getTokenOfChild(node, 0);
-			reference = scope.findReference(name);
-			if (reference == null)
-				reference = scope.defineVariable(name);
-			node.optimised = reference;
-		} else
-			reference = (Display.Reference) node.optimised;
-
-		ValueInteger set = new ValueInteger(255);
-		reference.setValue(set);
+		scope.setValue(node.level, node.slot, ValueInteger.MAX_CHANNEL);
 		return data;
 	}
 
+	// Get a colour channel from a value.  Channels are whole numbers, so any fraction
+	// of a rational is dropped.
+	private static int channelOf(Value v) {
+		return (int) v.doubleValue();
+	}
+
+	// sets one led to a colour
 	public Object visit(ASTUpdate node, Object data) {
 
-		// finds which array of leds rtelated tyo the name given
-		int arraynum = -1;
-		for (int p = 0; p < 10; p++) {
-			if (colour[p][0].equals(doChild(node, 4).stringValue())) {
-				arraynum = p;
-				p += 100;
-			}
-		}
-		
-		//handels the array not being present
-		if(arraynum == -1)
-		{
-			System.out.println("led array not found");
-		}
+		// evaluates each operand once, left to right, so that functions called in them
+		// run exactly once
+		int red = channelOf(doChild(node, 0));
+		int green = channelOf(doChild(node, 1));
+		int blue = channelOf(doChild(node, 2));
+		long light = doChild(node, 3).longValue();
 
-		// finds whihc light is to be edited
-		ValueInteger lightnum = (ValueInteger) doChild(node, 3);
-		double light = lightnum.doubleValue();
-
-		// gets teh rgb values that will be set to teh light
-		double Red = doChild(node, 0).doubleValue();
-		double Green = doChild(node, 1).doubleValue();
-		double Blue = doChild(node, 2).doubleValue();
-
-		// used rgb to find ligh golour adn set the led array to store this
-		// colour
-		if ((Red > 180) & (Green > 180) & (Blue > 180)) {
-			colour[arraynum][(int) light] = "WHITE";
-		} else if ((Red < 100) & (Green < 100) & (Blue < 100)) {
-			colour[arraynum][(int) light] = "BLACK";
-		} else if ((Red > 180) & (Green < 99) & (Blue < 99)) {
-			colour[arraynum][(int) light] = "RED";
-		} else if ((Red < 100) & (Green > 180) & (Blue < 100)) {
-			colour[arraynum][(int) light] = "LIME";
-		} else if ((Red < 100) & (Green < 100) & (Blue > 180)) {
-			colour[arraynum][(int) light] = "BLUE";
-		} else if ((Red > 180) & (Green > 180) & (Blue < 100)) {
-			colour[arraynum][(int) light] = "YELLOW";
-		} else if ((Red < 100) & (Green > 180) & (Blue > 180)) {
-			colour[arraynum][(int) light] = "AQUA";
-		} else if ((Red > 180) & (Green < 100) & (Blue > 180)) {
-			colour[arraynum][(int) light] = "MAGENTA";
-		} else if ((Red < 225) & (Green < 225) & (Blue < 225) & (Red > 155) & (Green > 155) & (Blue > 155)) {
-			colour[arraynum][(int) light] = "SILVER";
-		} else if ((Red < 190) & (Green < 190) & (Blue < 190) & (Red > 100) & (Green > 100) & (Blue > 100)) {
-			colour[arraynum][(int) light] = "SILVER";
-		} else if ((Red < 190) & (Green < 190) & (Blue < 190) & (Red > 100) & (Green > 100) & (Blue > 100)) {
-			colour[arraynum][(int) light] = "GRAY";
-		} else if ((Red < 190) & (Green < 100) & (Blue < 100) & (Red > 100)) {
-			colour[arraynum][(int) light] = "MAROON";
-		} else if ((Red < 190) & (Green < 190) & (Blue < 99) & (Red > 100) & (Green > 100)) {
-			colour[arraynum][(int) light] = "OLIVE";
-		} else if ((Green < 190) & (Red < 99) & (Blue < 99) & (Green > 100)) {
-			colour[arraynum][(int) light] = "MAROON";
-		} else if ((Red < 190) & (Green < 99) & (Blue < 99) & (Red > 100)) {
-			colour[arraynum][(int) light] = "GREEN";
-		} else if ((Blue < 190) & (Green < 99) & (Red < 99) & (Blue > 100)) {
-			colour[arraynum][(int) light] = "NAVY";
-		} else if ((Red < 190) & (Blue < 190) & (Green < 99) & (Red > 100) & (Blue > 100)) {
-			colour[arraynum][(int) light] = "PURPLE";
-		} else if ((Blue < 190) & (Green < 190) & (Red < 99) & (Blue > 100) & (Green > 100)) {
-			colour[arraynum][(int) light] = "TEAL";
-		} else {
-			colour[arraynum][(int) light] = "UNKNOWN";
-		}
-		// sets teh seccond array to store specified lightsd new rgb values
-		String temp = doChild(node, 0).stringValue() + "-" + doChild(node, 1).stringValue() + "-"
-				+ doChild(node, 2).stringValue();
+		// finds which array of leds rtelated tyo the name given
+		LedArray array = findLeds(node, 4);
+		if (!array.contains(light))
+			throw new ExceptionSemantic("LED " + light + " is not in led array " + array.getName() + ".");
 
-		lights[arraynum][(int) light] = temp;
+		// sets the light to the packed rgb values.  The colour name is only looked up
+		// when INFO asks for it.
+		array.set((int) light, red, green, blue);
 
 		return null;
 	}
@@ -683,97 +510,34 @@ public class Parser implements SiliVisitor {
 	
 	//writes teh colour of each light to the console
 	public Object visit(ASTInfo node, Object data) {
-		System.out.println();
-		System.out.println("||-------------------------------------||");
-
-		// for each light array
-		for (int p = 0; p < 10; p++) {
-
-			// find how many rows of lights
-			int numlines = lednums[p] / 3;
-			if (lednums[p] % 3 != 0) {
-				numlines += 1;
-			}
-			// if teh name of teh led array is correct
-			if (colour[p][0].equals(doChild(node, 0).stringValue())) {
-				int counter = 1;
-				for (int outc = 0; outc < numlines; outc++) {
-					System.out.println(
-							"||" + colour[p][counter] + "||" + colour[p][counter + 1] + "||" + colour[p][counter + 2]);
-					System.out.println("||-------------------------------------||");
-					counter += 3;
-
-				}
-				p += 100;
-			}
-		}
-
-		System.out.println();
-
+		output.info(findLeds(node, 0), classifier);
 		return data;
 	}
 
 	//creat a new array of leds
 	public Object visit(ASTLeds node, Object data) {
-
-		//gets teh size of the array
-		ValueInteger ledcount = (ValueInteger) doChild(node, 0);
-		double num = ledcount.doubleValue();
-		int nextarray = 0;
-
-		//stores teh size of the array
-		for (int p = 0; p < 10; p++) {
-			if (lednums[p] == 0) {
-				lednums[p] = (int) num;
-				colour[p][0] = doChild(node, 1).stringValue();
-				nextarray = p;
-				p += 10;
-			}
-
-		}
-		
-		//initalises the array to 0 and teh colour to off
-		for (int i = 1; i <= lednums[0]; i++) {
-			lights[nextarray][i] = "0-0-0";
-			colour[nextarray][i] = "OFF";
-		}
-		lights[nextarray][1] = "0-0-0";
-		colour[nextarray][1] = "OFF";
+		// Already defined?
+		if (sites[node.site] != null)
+			return null;
+
+		//gets teh size of the array.  This is read from the literal itself, as
+		// integer values are held to 255 and arrays can be far bigger than that.
+		String count = getTokenOfChild(node, 0);
+		long ledcount = Long.parseLong(count);
+		if (ledcount > Integer.MAX_VALUE)
+			throw new ExceptionSemantic("LED array cannot have " + count + " LEDs.");
+
+		//stores the array.  Its lights start off.
+		sites[node.site] = leds.define(doChild(node, 1).stringValue(), (int) ledcount);
 		return null;
 	}
 
 	//save a ledarray to a file
 	public Object visit(ASTSave node, Object data) {
-		int arraynum = 0;
-		
-		for (int p = 0; p < 10; p++) {
-			if (colour[p][0].equals(doChild(node, 0).stringValue())) {
-				arraynum = p;
-				p += 10;
-			}
-		}
-
-		try {
-
-			PrintWriter out = new PrintWriter((doChild(node, 0).stringValue() + ".txt"));
-
-			int numlines = lednums[arraynum] / 3;
-			
-			if (lednums[arraynum] % 3 != 0) {
-				numlines += 1;
-			}
-			int counter = 1;
-			for (int outc = 0; outc < numlines; outc++) {
-				out.println("|" + lights[arraynum][counter] + "|" + lights[arraynum][counter + 1] + "|"
-						+ lights[arraynum][counter + 2]);
-				counter += 3;
-
-			}
-			arraynum += 10;
-			out.close();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		}
-		return arraynum;
+		if (context != null)
+			context.save(findLeds(node, 0));
+		else
+			LedPrinter.save(findLeds(node, 0));
+		return data;
 	}
 }
@@ -0,0 +1,339 @@
+package LEDscript2.interpreter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import LEDscript2.parser.*;
+
+/** Keeps parsed and resolved programs on disk, so that running a script again skips
+ * lexing, parsing and resolving it.
+ *
+ * A program is kept in a file named for a SHA-256 hash of its source and of the classes
+ * that parse and resolve it.  So a changed script, or a new build of the interpreter, is
+ * parsed afresh without anything needing to be cleared out.  A file that can't be read
+ * back is parsed afresh too, and replaced.  Files are written under a temporary name and
+ * then renamed, so that programs sharing a cache never see one half written.
+ *
+ * A tree is kept as its nodes in prefix order.  Each is its kind, what the parser and
+ * Resolver set on it, and its number of children, mostly as variable length integers.
+ * A kind or a string is written out the first time it's used, and by its index after,
+ * so most nodes take three or four bytes.  Java serialisation would keep the tree too,
+ * but in several times the space, and reading it back is slower than parsing.
+ */
+class ProgramCache {
+
+	// The classes whose code decides what a parsed and resolved program looks like
+	private static final Class<?>[] stamped = { Sili.class, SiliTokenManager.class, SimpleNode.class,
+			BaseASTNode.class, Resolver.class, ProgramCache.class };
+
+	private static final byte[] magic = { 'S', 'I', 'L', 'C' };
+	private static final String suffix = ".ast";
+	private static final Charset utf8 = Charset.forName("UTF-8");
+	// What the name of the class of each kind of node starts with
+	private static final String nodeClassPrefix = ASTCode.class.getName().substring(0,
+			ASTCode.class.getName().length() - ASTCode.class.getSimpleName().length()) + "AST";
+
+	// Flags set on a node
+	private static final int ifHasElse = 1;
+	private static final int fnHasReturn = 2;
+	private static final int inlinable = 4;
+	private static final int hasTokenValue = 8;
+	private static final int hasLevel = 16;
+	private static final int hasSlot = 32;
+	private static final int hasSlotCount = 64;
+	private static final int hasSite = 128;
+	private static final int hasSiteCount = 256;
+
+	private final File directory;
+	private final byte[] stamp;
+
+	/** Ctor, given the directory to keep programs in.  It is made if need be. */
+	ProgramCache(File directory) {
+		this.directory = directory;
+		directory.mkdirs();
+		stamp = stamp();
+	}
+
+	/** Get the directory programs are kept in by default: .sili/cache in the user's home. */
+	static File defaultDirectory() {
+		return new File(new File(System.getProperty("user.home"), ".sili"), "cache");
+	}
+
+	/** Get a source's program, parsed and resolved, from the cache if it's there, or else
+	 * by parsing and resolving it and keeping the result. */
+	ASTCode load(byte[] source) throws ParseException {
+		File file = new File(directory, key(source) + suffix);
+		ASTCode program = read(file);
+		if (program != null)
+			return program;
+		program = new Sili(new ByteArrayInputStream(source)).code();
+		Resolver.resolve(program);
+		write(file, program);
+		return program;
+	}
+
+	// Read a program kept in a file.  Return null if there isn't one, or it can't be read.
+	private static ASTCode read(File file) {
+		if (!file.isFile())
+			return null;
+		try {
+			RandomAccessFile in = new RandomAccessFile(file, "r");
+			byte[] bytes;
+			try {
+				bytes = new byte[(int) in.length()];
+				in.readFully(bytes);
+			} finally {
+				in.close();
+			}
+			return new TreeReader(ByteBuffer.wrap(bytes)).readProgram();
+		} catch (Exception e) {
+			// Cut short, or otherwise not what was written
+			file.delete();
+			return null;
+		}
+	}
+
+	// Keep a program in a file.  A program that can't be kept is just parsed again next time.
+	private void write(File file, ASTCode program) {
+		File temporary = null;
+		try {
+			temporary = File.createTempFile("program", ".tmp", directory);
+			FileOutputStream out = new FileOutputStream(temporary);
+			try {
+				new TreeWriter().writeProgram(program).writeTo(out);
+			} finally {
+				out.close();
+			}
+			if (!temporary.renameTo(file)) {
+				// Some platforms won't rename over a file another program has just kept
+				file.delete();
+				temporary.renameTo(file);
+			}
+		} catch (IOException e) {
+		} finally {
+			if (temporary != null)
+				temporary.delete();
+		}
+	}
+
+	// Writes a tree.
+	private static final class TreeWriter {
+		private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		private final HashMap<String, Integer> kinds = new HashMap<String, Integer>();
+		private final HashMap<String, Integer> strings = new HashMap<String, Integer>();
+
+		ByteArrayOutputStream writeProgram(ASTCode program) {
+			out.write(magic, 0, magic.length);
+			writeNode(program);
+			return out;
+		}
+
+		private void writeNode(Node node) {
+			BaseASTNode base = (BaseASTNode) node;
+			writeString(kinds, node.getClass().getName());
+			// Most nodes have no level, slot, site or counts, so those are only written if set
+			int flags = (base.ifHasElse ? ifHasElse : 0) | (base.fnHasReturn ? fnHasReturn : 0)
+					| (base.inlinable ? inlinable : 0) | (base.tokenValue != null ? hasTokenValue : 0)
+					| (base.level != -1 ? hasLevel : 0) | (base.slot != -1 ? hasSlot : 0)
+					| (base.slotCount != 0 ? hasSlotCount : 0) | (base.site != -1 ? hasSite : 0)
+					| (base.siteCount != 0 ? hasSiteCount : 0);
+			writeInt(flags);
+			if (base.tokenValue != null)
+				writeString(strings, base.tokenValue);
+			// Levels, slots and sites are -1 where they aren't set
+			if (base.level != -1)
+				writeInt(base.level + 1);
+			if (base.slot != -1)
+				writeInt(base.slot + 1);
+			if (base.slotCount != 0)
+				writeInt(base.slotCount);
+			if (base.site != -1)
+				writeInt(base.site + 1);
+			if (base.siteCount != 0)
+				writeInt(base.siteCount);
+			writeInt(node.jjtGetNumChildren());
+			for (int i = 0; i < node.jjtGetNumChildren(); i++)
+				writeNode(node.jjtGetChild(i));
+		}
+
+		// Write a string's index in a table, and the string too the first time.
+		private void writeString(HashMap<String, Integer> table, String string) {
+			Integer index = table.get(string);
+			if (index != null) {
+				writeInt(index);
+				return;
+			}
+			writeInt(table.size());
+			table.put(string, table.size());
+			byte[] bytes = string.getBytes(utf8);
+			writeInt(bytes.length);
+			out.write(bytes, 0, bytes.length);
+		}
+
+		// Write an int of 0 or more in as few bytes as it needs, seven bits to a byte.
+		private void writeInt(int value) {
+			while ((value & ~0x7F) != 0) {
+				out.write((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			out.write(value);
+		}
+	}
+
+	// Reads a tree written by TreeWriter.
+	private static final class TreeReader {
+		private final ByteBuffer in;
+		private final ArrayList<Constructor<?>> kinds = new ArrayList<Constructor<?>>();
+		private final ArrayList<Integer> ids = new ArrayList<Integer>();
+		private final ArrayList<String> strings = new ArrayList<String>();
+
+		TreeReader(ByteBuffer in) {
+			this.in = in;
+		}
+
+		ASTCode readProgram() throws Exception {
+			byte[] header = new byte[magic.length];
+			in.get(header);
+			if (!Arrays.equals(header, magic))
+				throw new IOException("Not a kept program.");
+			ASTCode program = (ASTCode) readNode();
+			if (in.hasRemaining())
+				throw new IOException("Not a kept program.");
+			return program;
+		}
+
+		private Node readNode() throws Exception {
+			int kind = readInt();
+			if (kind == kinds.size())
+				readKind();
+			SimpleNode node = (SimpleNode) kinds.get(kind).newInstance(ids.get(kind));
+			int flags = readInt();
+			node.ifHasElse = (flags & ifHasElse) != 0;
+			node.fnHasReturn = (flags & fnHasReturn) != 0;
+			node.inlinable = (flags & inlinable) != 0;
+			if ((flags & hasTokenValue) != 0) {
+				int index = readInt();
+				if (index == strings.size())
+					strings.add(readString());
+				node.tokenValue = strings.get(index);
+			}
+			if ((flags & hasLevel) != 0)
+				node.level = readInt() - 1;
+			if ((flags & hasSlot) != 0)
+				node.slot = readInt() - 1;
+			if ((flags & hasSlotCount) != 0)
+				node.slotCount = readInt();
+			if ((flags & hasSite) != 0)
+				node.site = readInt() - 1;
+			if ((flags & hasSiteCount) != 0)
+				node.siteCount = readInt();
+			Node[] children = new Node[readInt()];
+			for (int i = 0; i < children.length; i++) {
+				children[i] = readNode();
+				children[i].jjtSetParent(node);
+			}
+			// Adding the last child first sizes the array of children once
+			for (int i = children.length - 1; i >= 0; i--)
+				node.jjtAddChild(children[i], i);
+			return node;
+		}
+
+		// Read a kind of node the first time it's used: the name of its class, which is
+		// AST followed by its name as the parser knows it.  The name is checked before the
+		// class is loaded, so that a kept file can't load any other class.
+		private void readKind() throws Exception {
+			String className = readString();
+			if (!className.startsWith(nodeClassPrefix))
+				throw new IOException("Not a kept program.");
+			int id = Arrays.asList(SiliTreeConstants.jjtNodeName).indexOf(className.substring(nodeClassPrefix.length()));
+			if (id < 0)
+				throw new IOException("Not a kept program.");
+			Class<?> kind = Class.forName(className, false, SimpleNode.class.getClassLoader());
+			if (!SimpleNode.class.isAssignableFrom(kind))
+				throw new IOException("Not a kept program.");
+			kinds.add(kind.getConstructor(int.class));
+			ids.add(id);
+		}
+
+		private String readString() {
+			byte[] bytes = new byte[readInt()];
+			in.get(bytes);
+			return new String(bytes, utf8);
+		}
+
+		private int readInt() {
+			int value = 0;
+			for (int shift = 0;; shift += 7) {
+				int b = in.get();
+				value |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+					return value;
+			}
+		}
+	}
+
+	// Get the key of a source: a hash of it and of the stamp of this build, in hex.
+	private String key(byte[] source) {
+		return hash(stamp, source);
+	}
+
+	/** Get the SHA-256 hash of some bytes, one after another, in hex. */
+	static String hash(byte[]... parts) {
+		MessageDigest digest = sha256();
+		for (byte[] part : parts)
+			digest.update(part);
+		StringBuilder hash = new StringBuilder();
+		for (byte b : digest.digest())
+			hash.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		return hash.toString();
+	}
+
+	// Get a hash of the class files of the stamped classes, which changes with each build
+	// that changes them.
+	private static byte[] stamp() {
+		MessageDigest digest = sha256();
+		byte[] buffer = new byte[8192];
+		for (Class<?> stampedClass : stamped) {
+			String name = stampedClass.getName();
+			InputStream in = stampedClass.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class");
+			if (in == null) {
+				// Can't tell one build from another, so go by the time instead, and never hit
+				digest.update(Long.toString(System.nanoTime()).getBytes());
+				continue;
+			}
+			try {
+				try {
+					for (int count = in.read(buffer); count >= 0; count = in.read(buffer))
+						digest.update(buffer, 0, count);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				digest.update(Long.toString(System.nanoTime()).getBytes());
+			}
+		}
+		return digest.digest();
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every JVM has SHA-256
+			throw new ExceptionSemantic("SHA-256 is not available.");
+		}
+	}
+}
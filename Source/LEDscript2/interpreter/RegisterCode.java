@@ -0,0 +1,216 @@
+package LEDscript2.interpreter;
+
+import LEDscript2.values.*;
+
+/** The lowered form of one function, or of the top level of a program, for RegisterMachine.
+ *
+ * Code is a flat array of ints: an opcode followed by its operands.  Operands name
+ * registers, sites and jump targets by number.  Registers 0 to getLocalCount()-1 hold
+ * the function's parameters and local variables, in the slots given by the Resolver, so
+ * a variable of the function itself is just an operand.  The constants come next, set
+ * when a frame is made, so that a literal operand needs no instruction of its own.
+ * The registers after them are temporaries.
+ *
+ * A site is an instruction that looks something up by name - a function or an LED
+ * array.  What it finds is cached here against the site number, so that each name is
+ * only looked up the first time its instruction runs, as with the other engines.
+ */
+class RegisterCode {
+
+	// Opcodes.  Operands follow in the order given.
+	static final int MOVE = 0;			// dst src
+	static final int LOAD = 1;			// dst level register site - read a variable of an enclosing function
+	static final int STORE = 2;			// level register src - write a variable of an enclosing function
+	static final int ASSIGN = 3;		// dst src - move an integer, holding it at 1 or more
+	static final int ADD = 4;			// dst a b clamp
+	static final int SUBTRACT = 5;		// dst a b clamp
+	static final int TIMES = 6;			// dst a b clamp
+	static final int DIVIDE = 7;		// dst a b clamp
+	static final int EQUAL = 8;			// dst a b
+	static final int NOT_EQUAL = 9;		// dst a b
+	static final int GREATER_OR_EQUAL = 10;	// dst a b
+	static final int LESS_OR_EQUAL = 11;	// dst a b
+	static final int GREATER = 12;		// dst a b
+	static final int LESS = 13;			// dst a b
+	static final int OR = 14;			// dst a b
+	static final int AND = 15;			// dst a b
+	static final int NOT = 16;			// dst a
+	static final int PLUS = 17;			// dst a
+	static final int MINUS = 18;		// dst a
+	static final int JUMP = 19;			// target
+	static final int IF_FALSE = 20;		// a target - the test of an if statement
+	static final int FOR_TRUE = 21;		// a target - the test of a for loop
+	static final int JUMP_UNLESS = 22;	// comparison a b target - a comparison as the test of an if statement
+	static final int JUMP_IF = 23;		// comparison a b target - a comparison as the test of a for loop
+	static final int FUNCTION = 24;		// site function - define a function
+	static final int FIND = 25;			// site inExpression argumentCount - find a function to call
+	static final int CALL = 26;			// site dst argumentBase argumentCount
+	static final int RETURN = 27;		// src
+	static final int DELAY = 28;		// a
+	static final int LEDS = 29;			// site count
+	static final int UPDATE = 30;		// site red green blue light
+	static final int WRITE = 31;		// site
+	static final int INFO = 32;			// site
+	static final int SAVE = 33;			// site
+	static final int TAIL_CALL = 34;	// site dst argumentBase argumentCount - a CALL whose value is returned straight away
+
+	// Clamps applied by arithmetic opcodes
+	static final int CLAMP_LOWER = 1;
+	static final int CLAMP_UPPER = 2;
+	static final int CLAMP_ASSIGN = 4;	// the result must be an integer, as an assignment takes
+
+	// Register types
+	static final byte NONE = 0;
+	static final byte INTEGER = 1;
+	static final byte RATIONAL = 2;
+	static final byte BOOLEAN = 3;
+	static final byte OTHER = 4;
+
+	/** No register, for a call with no result or a function with no return value. */
+	static final int NO_REGISTER = -1;
+
+	final String name;
+	final String[] parameters;
+	final boolean hasReturn;
+	final int[] code;
+	final int registerCount;
+
+	// Constants, split as registers are, and the register of the first
+	final int constantBase;
+	final byte[] constantTypes;
+	final long[] constantBits;
+	final Value[] constantOthers;
+
+	// Functions defined by this code
+	final RegisterCode[] functions;
+
+	// Parameter and local variable names by register
+	final String[] localNames;
+
+	// Sites, by name.  What each finds is kept by the run, so that code can be run again.
+	final String[] siteNames;
+
+	// The number of this code in its program, and that of its first site, counting the
+	// sites of every code of the program.  The top level is numbered last.
+	final int number;
+	final int siteBase;
+
+	/** Ctor. */
+	RegisterCode(String name, String[] parameters, boolean hasReturn, int[] code, int registerCount,
+			String[] localNames, Value[] constants, RegisterCode[] functions, String[] siteNames, int number,
+			int siteBase) {
+		this.name = name;
+		this.parameters = parameters;
+		this.hasReturn = hasReturn;
+		this.code = code;
+		this.registerCount = registerCount;
+		this.localNames = localNames;
+		this.functions = functions;
+		this.siteNames = siteNames;
+		this.number = number;
+		this.siteBase = siteBase;
+		constantBase = localNames.length;
+		constantTypes = new byte[constants.length];
+		constantBits = new long[constants.length];
+		constantOthers = new Value[constants.length];
+		for (int i = 0; i < constants.length; i++) {
+			constantTypes[i] = typeOf(constants[i]);
+			constantBits[i] = bitsOf(constants[i]);
+			constantOthers[i] = constants[i];
+		}
+	}
+
+	/** Get the number of parameters and local variables. */
+	int getLocalCount() {
+		return localNames.length;
+	}
+
+	/** Get the length of an instruction, including its opcode. */
+	static int length(int opcode) {
+		switch (opcode) {
+		case JUMP:
+		case RETURN:
+		case DELAY:
+		case WRITE:
+		case INFO:
+		case SAVE:
+			return 2;
+		case MOVE:
+		case ASSIGN:
+		case NOT:
+		case PLUS:
+		case MINUS:
+		case IF_FALSE:
+		case FOR_TRUE:
+		case FUNCTION:
+		case LEDS:
+			return 3;
+		case STORE:
+		case FIND:
+		case EQUAL:
+		case NOT_EQUAL:
+		case GREATER_OR_EQUAL:
+		case LESS_OR_EQUAL:
+		case GREATER:
+		case LESS:
+		case OR:
+		case AND:
+			return 4;
+		case LOAD:
+		case ADD:
+		case SUBTRACT:
+		case TIMES:
+		case DIVIDE:
+		case JUMP_UNLESS:
+		case JUMP_IF:
+		case CALL:
+		case TAIL_CALL:
+			return 5;
+		default:
+			return 6;	// UPDATE
+		}
+	}
+
+	/** Get the register type of a value. */
+	static byte typeOf(Value v) {
+		if (v == null)
+			return NONE;
+		if (v instanceof ValueInteger)
+			return INTEGER;
+		if (v instanceof ValueRational)
+			return RATIONAL;
+		if (v instanceof ValueBoolean)
+			return BOOLEAN;
+		return OTHER;
+	}
+
+	/** Get the register bits of a value. */
+	static long bitsOf(Value v) {
+		switch (typeOf(v)) {
+		case INTEGER:
+			return v.longValue();
+		case RATIONAL:
+			return Double.doubleToRawLongBits(v.doubleValue());
+		case BOOLEAN:
+			return v.booleanValue() ? 1 : 0;
+		default:
+			return 0;
+		}
+	}
+
+	/** Get the value held in a register as a Value. */
+	static Value valueOf(byte type, long bits, Value other) {
+		switch (type) {
+		case INTEGER:
+			return ValueInteger.of(bits);
+		case RATIONAL:
+			return new ValueRational(Double.longBitsToDouble(bits));
+		case BOOLEAN:
+			return ValueBoolean.of(bits != 0);
+		case OTHER:
+			return other;
+		default:
+			return null;
+		}
+	}
+}
@@ -0,0 +1,697 @@
+package LEDscript2.interpreter;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+import LEDscript2.parser.*;
+import LEDscript2.values.*;
+
+/** Lowers an AST into RegisterCode for RegisterMachine.
+ *
+ * One RegisterCompiler lowers one function, or the top level of a program; each function
+ * definition inside it gets a RegisterCompiler of its own.  Expressions are lowered into
+ * a destination register, passed to each visit as its data, and use temporary registers
+ * above it for their operands in the manner of a stack.  A literal operand is read
+ * straight from its constant register instead, and a variable of the code itself from
+ * its own register, unless something that comes after it might change it.  Variables
+ * are where the Resolver put them: those of this code are registers, and those of
+ * enclosing functions are loaded and stored by level.
+ */
+class RegisterCompiler implements SiliVisitor {
+
+	private int[] code = new int[64];
+	private int length = 0;
+	private final ArrayList<Value> constants = new ArrayList<Value>();
+	private final ArrayList<RegisterCode> functions = new ArrayList<RegisterCode>();
+	private final ArrayList<String> siteNames = new ArrayList<String>();
+	private final int level;
+	private final String[] localNames;
+	private final IdentityHashMap<Node, Integer> literals = new IdentityHashMap<Node, Integer>();
+	private int temporaries = 0;
+	private int maximumTemporaries = 0;
+
+	// The compiler of the top level, which counts the codes and sites of the program as
+	// each code is finished
+	private final RegisterCompiler program;
+	private int codeCount = 0;
+	private int siteCount = 0;
+
+	// Ctor, given the compiler of the top level, or null for the top level itself, the
+	// nesting level of the code and the number of slots of its variables.
+	private RegisterCompiler(RegisterCompiler program, int level, int slotCount) {
+		this.program = (program != null) ? program : this;
+		this.level = level;
+		localNames = new String[slotCount];
+	}
+
+	/** Lower a program. */
+	static RegisterCode compile(ASTCode node) {
+		RegisterCompiler compiler = new RegisterCompiler(null, 0, node.slotCount);
+		compiler.nameLocals(node);
+		compiler.defineConstants(node);
+		compiler.statements(node);
+		compiler.emit(RegisterCode.RETURN, RegisterCode.NO_REGISTER);
+		return compiler.finish("%main", new String[0], false);
+	}
+
+	// Lower a function definition.
+	private RegisterCode compileFunction(ASTFnDef node, int level) {
+		RegisterCompiler compiler = new RegisterCompiler(program, level, node.slotCount);
+		SimpleNode parmlist = getChild(node, 1);
+		String[] parameters = new String[parmlist.jjtGetNumChildren()];
+		for (int i = 0; i < parameters.length; i++) {
+			// First slots are always parameters
+			parameters[i] = getTokenOfChild(parmlist, i);
+			compiler.localNames[i] = parameters[i];
+		}
+		compiler.nameLocals(getChild(node, 2));
+		if (node.fnHasReturn)
+			compiler.nameLocals(getChild(node, 3));
+		compiler.defineConstants(getChild(node, 2));
+		if (node.fnHasReturn)
+			compiler.defineConstants(getChild(node, 3));
+		compiler.statement(node, 2);
+		if (node.fnHasReturn)
+			compiler.emit(RegisterCode.RETURN, compiler.operand(getChild(node, 3), 0));
+		else
+			compiler.emit(RegisterCode.RETURN, RegisterCode.NO_REGISTER);
+		return compiler.finish(getTokenOfChild(node, 0), parameters, node.fnHasReturn);
+	}
+
+	private RegisterCode finish(String name, String[] parameters, boolean hasReturn) {
+		markTailCalls();
+		int[] finalCode = new int[length];
+		System.arraycopy(code, 0, finalCode, 0, length);
+		int siteBase = program.siteCount;
+		program.siteCount += siteNames.size();
+		return new RegisterCode(name, parameters, hasReturn, finalCode,
+				localNames.length + constants.size() + maximumTemporaries, localNames,
+				constants.toArray(new Value[constants.size()]), functions.toArray(new RegisterCode[functions.size()]),
+				siteNames.toArray(new String[siteNames.size()]), program.codeCount++, siteBase);
+	}
+
+	// Record the name of every variable of this code used within a node, but not within
+	// the functions it defines, for error messages.
+	private void nameLocals(Node node) {
+		if (node instanceof ASTFnDef)
+			return;
+		if (node instanceof ASTDereference && ((SimpleNode) node).level == level)
+			localNames[((SimpleNode) node).slot] = ((SimpleNode) node).tokenValue;
+		for (int i = 0; i < node.jjtGetNumChildren(); i++)
+			nameLocals(node.jjtGetChild(i));
+	}
+
+	// Turn each CALL that is followed, perhaps through jumps, by a RETURN of its value into
+	// a TAIL_CALL.  If it turns out to call this same function, the machine reuses the frame.
+	private void markTailCalls() {
+		for (int pc = 0; pc < length; pc += RegisterCode.length(code[pc])) {
+			if (code[pc] != RegisterCode.CALL)
+				continue;
+			int next = pc + RegisterCode.length(RegisterCode.CALL);
+			while (code[next] == RegisterCode.JUMP)
+				next = code[next + 1];
+			if (code[next] == RegisterCode.RETURN && code[next + 1] == code[pc + 2])
+				code[pc] = RegisterCode.TAIL_CALL;
+		}
+	}
+
+	// Give a register to every literal within a node, but not within the functions it
+	// defines, along with the constants that statements within it use.
+	private void defineConstants(Node node) {
+		if (node instanceof ASTFnDef)
+			return;
+		if (node instanceof ASTInteger) {
+			// Numbers above 255 are held at 255.
+			ValueInteger number = ValueInteger.of(Long.parseLong(((SimpleNode) node).tokenValue));
+			if (number.compare(ValueInteger.MAX_CHANNEL) == 1)
+				number = ValueInteger.MAX_CHANNEL;
+			literals.put(node, Integer.valueOf(constant(number)));
+		} else if (node instanceof ASTRational)
+			literals.put(node,
+					Integer.valueOf(constant(new ValueRational(Double.parseDouble(((SimpleNode) node).tokenValue)))));
+		else if (node instanceof ASTCharacter)
+			literals.put(node, Integer.valueOf(constant(ValueString.stripDelimited(((SimpleNode) node).tokenValue))));
+		else if (node instanceof ASTTrue)
+			literals.put(node, Integer.valueOf(constant(ValueBoolean.TRUE)));
+		else if (node instanceof ASTFalse)
+			literals.put(node, Integer.valueOf(constant(ValueBoolean.FALSE)));
+		else if (node instanceof ASTLeds) {
+			// The LED count is read from the literal, as arrays can hold more than 255 LEDs.
+			long count = Long.parseLong(getTokenOfChild((SimpleNode) node, 0));
+			literals.put(node, Integer.valueOf(constant(new ValueInteger(count))));
+		} else if (node instanceof ASTClear)
+			constant(ValueInteger.MIN_CHANNEL);
+		else if (node instanceof ASTFill || node instanceof ASTflipassign)
+			constant(ValueInteger.MAX_CHANNEL);
+		for (int i = 0; i < node.jjtGetNumChildren(); i++)
+			defineConstants(node.jjtGetChild(i));
+	}
+
+	// Get the register of a constant, giving it one if it doesn't have one.  Only the
+	// shared integers and booleans are found again; any other constant gets a new register.
+	private int constant(Value value) {
+		int index = constants.indexOf(value);
+		if (index < 0) {
+			constants.add(value);
+			index = constants.size() - 1;
+		}
+		return localNames.length + index;
+	}
+
+	// Allocate a temporary register.
+	private int temporary() {
+		int register = localNames.length + constants.size() + temporaries++;
+		if (temporaries > maximumTemporaries)
+			maximumTemporaries = temporaries;
+		return register;
+	}
+
+	// Add an instruction.
+	private void emit(int... instruction) {
+		if (length + instruction.length > code.length) {
+			int[] newCode = new int[Math.max(code.length * 2, length + instruction.length)];
+			System.arraycopy(code, 0, newCode, 0, length);
+			code = newCode;
+		}
+		for (int i = 0; i < instruction.length; i++)
+			code[length++] = instruction[i];
+	}
+
+	// Point the jump target at the given position to the end of the code so far.
+	private void patch(int position) {
+		code[position] = length;
+	}
+
+	private int site(String name) {
+		siteNames.add(name);
+		return siteNames.size() - 1;
+	}
+
+	// Get the ith child of a given node.
+	private static SimpleNode getChild(SimpleNode node, int childIndex) {
+		return (SimpleNode) node.jjtGetChild(childIndex);
+	}
+
+	// Get the token value of the ith child of a given node.
+	private static String getTokenOfChild(SimpleNode node, int childIndex) {
+		return getChild(node, childIndex).tokenValue;
+	}
+
+	// Get the value of a string literal that is the ith child of a given node.
+	private static String getStringOfChild(SimpleNode node, int childIndex) {
+		return ValueString.stripDelimited(getTokenOfChild(node, childIndex)).stringValue();
+	}
+
+	// Lower the ith child of a given node as an expression into a given register.
+	private void expression(SimpleNode node, int childIndex, int destination) {
+		node.jjtGetChild(childIndex).jjtAccept(this, Integer.valueOf(destination));
+	}
+
+	// True if a node is a variable of this code.
+	private boolean isLocal(Node node) {
+		return node instanceof ASTDereference && ((SimpleNode) node).level == level;
+	}
+
+	// Get a register holding the value of the ith child of a given node.  That is its
+	// constant register if it is a literal, its own register if it is a variable of this
+	// code and only literals and such variables follow it, otherwise a temporary it is
+	// lowered into.  Anything else following it might change the variable or fail first.
+	private int operand(SimpleNode node, int childIndex) {
+		Node child = node.jjtGetChild(childIndex);
+		Integer literal = literals.get(child);
+		if (literal != null)
+			return literal.intValue();
+		if (isLocal(child)) {
+			boolean following = false;
+			for (int i = childIndex + 1; i < node.jjtGetNumChildren(); i++)
+				if (!literals.containsKey(node.jjtGetChild(i)) && !isLocal(node.jjtGetChild(i)))
+					following = true;
+			if (!following)
+				return ((SimpleNode) child).slot;
+		}
+		int register = temporary();
+		expression(node, childIndex, register);
+		return register;
+	}
+
+	// Get the comparison opcode of a node.  Return -1 if it isn't a comparison.
+	private static int comparison(Node node) {
+		if (node instanceof ASTCompEqual)
+			return RegisterCode.EQUAL;
+		if (node instanceof ASTCompNequal)
+			return RegisterCode.NOT_EQUAL;
+		if (node instanceof ASTCompGTE)
+			return RegisterCode.GREATER_OR_EQUAL;
+		if (node instanceof ASTCompLTE)
+			return RegisterCode.LESS_OR_EQUAL;
+		if (node instanceof ASTCompGT)
+			return RegisterCode.GREATER;
+		if (node instanceof ASTCompLT)
+			return RegisterCode.LESS;
+		return -1;
+	}
+
+	// Get the arithmetic opcode of a node.  Return -1 if it isn't arithmetic.
+	private static int arithmeticOpcode(Node node) {
+		if (node instanceof ASTAdd)
+			return RegisterCode.ADD;
+		if (node instanceof ASTSubtract)
+			return RegisterCode.SUBTRACT;
+		if (node instanceof ASTTimes)
+			return RegisterCode.TIMES;
+		if (node instanceof ASTDivide)
+			return RegisterCode.DIVIDE;
+		return -1;
+	}
+
+	// Get the clamp of an arithmetic opcode.  Only - is held at 1 rather than at 255.
+	private static int clamp(int opcode) {
+		return (opcode == RegisterCode.SUBTRACT) ? RegisterCode.CLAMP_LOWER : RegisterCode.CLAMP_UPPER;
+	}
+
+	// Lower the test of an IF or FOR, which is the ith child of a given node, as a jump
+	// to a target still to be patched.  Return the position of the target.
+	private int test(SimpleNode node, int childIndex, int opcode, int comparisonOpcode) {
+		SimpleNode test = getChild(node, childIndex);
+		int comparison = comparison(test);
+		if (comparison < 0)
+			emit(opcode, operand(node, childIndex), 0);
+		else {
+			int left = operand(test, 0);
+			int right = operand(test, 1);
+			emit(comparisonOpcode, comparison, left, right, 0);
+		}
+		return length - 1;
+	}
+
+	// Lower the ith child of a given node as a statement.
+	private void statement(SimpleNode node, int childIndex) {
+		temporaries = 0;
+		node.jjtGetChild(childIndex).jjtAccept(this, null);
+	}
+
+	// Lower all children of a given node as statements.
+	private void statements(SimpleNode node) {
+		for (int i = 0; i < node.jjtGetNumChildren(); i++)
+			statement(node, i);
+	}
+
+	// Lower a binary operator.
+	private void binary(SimpleNode node, Object data, int opcode) {
+		int first = temporaries;
+		int left = operand(node, 0);
+		int right = operand(node, 1);
+		emit(opcode, ((Integer) data).intValue(), left, right);
+		temporaries = first;
+	}
+
+	// Lower a clamped arithmetic operator.
+	private void arithmetic(SimpleNode node, Object data, int opcode, int clamp) {
+		binary(node, data, opcode);
+		emit(clamp);
+	}
+
+	// Lower a unary operator.
+	private void unary(SimpleNode node, Object data, int opcode) {
+		int first = temporaries;
+		int operand = operand(node, 0);
+		emit(opcode, ((Integer) data).intValue(), operand);
+		temporaries = first;
+	}
+
+	// Get the register to work out a value to be stored into the variable a node assigns
+	// to.  That is the variable's own register if it belongs to this code.
+	private int target(SimpleNode node) {
+		return (node.level == level) ? node.slot : temporary();
+	}
+
+	// Store a value worked out in the register given by target() into its variable.
+	private void store(SimpleNode node, int register) {
+		if (node.level != level)
+			emit(RegisterCode.STORE, node.level, node.slot, register);
+	}
+
+	// Lower a compound assignment, which works out a new value from the variable named
+	// by the first child and an amount, holding it in 1-255.
+	private void compoundAssign(SimpleNode node, int opcode) {
+		int result = target(node);
+		int variable = operand(node, 0);
+		int amount = operand(node, 1);
+		emit(opcode, result, variable, amount, RegisterCode.CLAMP_LOWER | RegisterCode.CLAMP_UPPER);
+		store(node, result);
+	}
+
+	// Lower a statement that stores a constant into the variable named by the first child.
+	private void storeConstant(SimpleNode node, Value value) {
+		if (node.level == level)
+			emit(RegisterCode.MOVE, node.slot, constant(value));
+		else
+			emit(RegisterCode.STORE, node.level, node.slot, constant(value));
+	}
+
+	// Lower a function call, leaving its value in a given register.
+	private void call(SimpleNode node, int destination, boolean inExpression) {
+		int site = site(getTokenOfChild(node, 0));
+		SimpleNode arglist = getChild(node, 1);
+		int argumentCount = arglist.jjtGetNumChildren();
+		emit(RegisterCode.FIND, site, inExpression ? 1 : 0, argumentCount);
+		int first = temporaries;
+		int argumentBase = localNames.length + constants.size() + temporaries;
+		for (int i = 0; i < argumentCount; i++)
+			temporary();
+		for (int i = 0; i < argumentCount; i++)
+			expression(arglist, i, argumentBase + i);
+		emit(RegisterCode.CALL, site, destination, argumentBase, argumentCount);
+		temporaries = first;
+	}
+
+	// Called if one of the following methods is missing...
+	public Object visit(SimpleNode node, Object data) {
+		throw new ExceptionSemantic(node + ": register compiler not implemented in subclass?");
+	}
+
+	// A Sili program is lowered by compile()
+	public Object visit(ASTCode node, Object data) {
+		statements(node);
+		return null;
+	}
+
+	// A statement
+	public Object visit(ASTStatement node, Object data) {
+		statements(node);
+		return null;
+	}
+
+	// A block
+	public Object visit(ASTBlock node, Object data) {
+		statements(node);
+		return null;
+	}
+
+	// Function definition.  The function is lowered into code of its own.
+	public Object visit(ASTFnDef node, Object data) {
+		functions.add(compileFunction(node, level + 1));
+		emit(RegisterCode.FUNCTION, site(getTokenOfChild(node, 0)), functions.size() - 1);
+		return null;
+	}
+
+	// Function definition parameter list.  Lowered by its function definition.
+	public Object visit(ASTParmlist node, Object data) {
+		return null;
+	}
+
+	// Function body
+	public Object visit(ASTFnBody node, Object data) {
+		statements(node);
+		return null;
+	}
+
+	// Function return expression
+	public Object visit(ASTReturnExpression node, Object data) {
+		expression(node, 0, ((Integer) data).intValue());
+		return null;
+	}
+
+	// Function call
+	public Object visit(ASTCall node, Object data) {
+		call(node, RegisterCode.NO_REGISTER, false);
+		return null;
+	}
+
+	// Function invocation in an expression
+	public Object visit(ASTFnInvoke node, Object data) {
+		call(node, ((Integer) data).intValue(), true);
+		return null;
+	}
+
+	// Function invocation argument list.  Lowered by its call or invocation.
+	public Object visit(ASTArgList node, Object data) {
+		return null;
+	}
+
+	// IF
+	public Object visit(ASTIfStatement node, Object data) {
+		int ifFalse = test(node, 0, RegisterCode.IF_FALSE, RegisterCode.JUMP_UNLESS);
+		statement(node, 1);
+		if (node.ifHasElse) {
+			emit(RegisterCode.JUMP, 0);
+			int end = length - 1;
+			patch(ifFalse);
+			statement(node, 2);
+			patch(end);
+		} else
+			patch(ifFalse);
+		return null;
+	}
+
+	// FOR loop.  The test is lowered after the body, so that each time round takes one jump.
+	public Object visit(ASTForLoop node, Object data) {
+		statement(node, 0);
+		emit(RegisterCode.JUMP, 0);
+		int start = length - 1;
+		int body = length;
+		statement(node, 3);
+		statement(node, 2);
+		patch(start);
+		temporaries = 0;
+		int end = test(node, 1, RegisterCode.FOR_TRUE, RegisterCode.JUMP_IF);
+		code[end] = body;
+		return null;
+	}
+
+	// An identifier.  Lowered by the node that names it.
+	public Object visit(ASTIdentifier node, Object data) {
+		return null;
+	}
+
+	// WRITE
+	public Object visit(ASTWrite node, Object data) {
+		emit(RegisterCode.WRITE, site(getStringOfChild(node, 0)));
+		return null;
+	}
+
+	// Dereference a variable or parameter
+	public Object visit(ASTDereference node, Object data) {
+		if (node.level == level)
+			emit(RegisterCode.MOVE, ((Integer) data).intValue(), node.slot);
+		else
+			emit(RegisterCode.LOAD, ((Integer) data).intValue(), node.level, node.slot, site(node.tokenValue));
+		return null;
+	}
+
+	// Assignment.  Arithmetic is worked out straight into a variable of this code.
+	public Object visit(ASTAssignment node, Object data) {
+		int opcode = arithmeticOpcode(node.jjtGetChild(1));
+		if (node.level == level && opcode >= 0)
+			arithmetic(getChild(node, 1), Integer.valueOf(node.slot), opcode,
+					clamp(opcode) | RegisterCode.CLAMP_LOWER | RegisterCode.CLAMP_ASSIGN);
+		else if (node.level == level)
+			emit(RegisterCode.ASSIGN, node.slot, operand(node, 1));
+		else {
+			int result = temporary();
+			expression(node, 1, result);
+			emit(RegisterCode.ASSIGN, result, result);
+			store(node, result);
+		}
+		return null;
+	}
+
+	// OR
+	public Object visit(ASTOr node, Object data) {
+		binary(node, data, RegisterCode.OR);
+		return null;
+	}
+
+	// AND
+	public Object visit(ASTAnd node, Object data) {
+		binary(node, data, RegisterCode.AND);
+		return null;
+	}
+
+	// ==
+	public Object visit(ASTCompEqual node, Object data) {
+		binary(node, data, RegisterCode.EQUAL);
+		return null;
+	}
+
+	// !=
+	public Object visit(ASTCompNequal node, Object data) {
+		binary(node, data, RegisterCode.NOT_EQUAL);
+		return null;
+	}
+
+	// >=
+	public Object visit(ASTCompGTE node, Object data) {
+		binary(node, data, RegisterCode.GREATER_OR_EQUAL);
+		return null;
+	}
+
+	// <=
+	public Object visit(ASTCompLTE node, Object data) {
+		binary(node, data, RegisterCode.LESS_OR_EQUAL);
+		return null;
+	}
+
+	// >
+	public Object visit(ASTCompGT node, Object data) {
+		binary(node, data, RegisterCode.GREATER);
+		return null;
+	}
+
+	// <
+	public Object visit(ASTCompLT node, Object data) {
+		binary(node, data, RegisterCode.LESS);
+		return null;
+	}
+
+	// +
+	public Object visit(ASTAdd node, Object data) {
+		arithmetic(node, data, RegisterCode.ADD, clamp(RegisterCode.ADD));
+		return null;
+	}
+
+	// -
+	public Object visit(ASTSubtract node, Object data) {
+		arithmetic(node, data, RegisterCode.SUBTRACT, clamp(RegisterCode.SUBTRACT));
+		return null;
+	}
+
+	// *
+	public Object visit(ASTTimes node, Object data) {
+		arithmetic(node, data, RegisterCode.TIMES, clamp(RegisterCode.TIMES));
+		return null;
+	}
+
+	// /
+	public Object visit(ASTDivide node, Object data) {
+		arithmetic(node, data, RegisterCode.DIVIDE, clamp(RegisterCode.DIVIDE));
+		return null;
+	}
+
+	// NOT
+	public Object visit(ASTUnaryNot node, Object data) {
+		unary(node, data, RegisterCode.NOT);
+		return null;
+	}
+
+	// + (unary)
+	public Object visit(ASTUnaryPlus node, Object data) {
+		unary(node, data, RegisterCode.PLUS);
+		return null;
+	}
+
+	// - (unary)
+	public Object visit(ASTUnaryMinus node, Object data) {
+		unary(node, data, RegisterCode.MINUS);
+		return null;
+	}
+
+	// String literal
+	public Object visit(ASTCharacter node, Object data) {
+		emit(RegisterCode.MOVE, ((Integer) data).intValue(), literals.get(node).intValue());
+		return null;
+	}
+
+	// Integer literal
+	public Object visit(ASTInteger node, Object data) {
+		emit(RegisterCode.MOVE, ((Integer) data).intValue(), literals.get(node).intValue());
+		return null;
+	}
+
+	// Floating point literal
+	public Object visit(ASTRational node, Object data) {
+		emit(RegisterCode.MOVE, ((Integer) data).intValue(), literals.get(node).intValue());
+		return null;
+	}
+
+	// True literal
+	public Object visit(ASTTrue node, Object data) {
+		emit(RegisterCode.MOVE, ((Integer) data).intValue(), literals.get(node).intValue());
+		return null;
+	}
+
+	// False literal
+	public Object visit(ASTFalse node, Object data) {
+		emit(RegisterCode.MOVE, ((Integer) data).intValue(), literals.get(node).intValue());
+		return null;
+	}
+
+	// BRIGHTEN
+	public Object visit(ASTAddassign node, Object data) {
+		compoundAssign(node, RegisterCode.ADD);
+		return null;
+	}
+
+	// DARKEN
+	public Object visit(ASTDecassign node, Object data) {
+		compoundAssign(node, RegisterCode.SUBTRACT);
+		return null;
+	}
+
+	// FLIP
+	public Object visit(ASTflipassign node, Object data) {
+		int result = target(node);
+		int variable = operand(node, 0);
+		emit(RegisterCode.SUBTRACT, result, constant(ValueInteger.MAX_CHANNEL), variable, RegisterCode.CLAMP_LOWER | RegisterCode.CLAMP_UPPER);
+		store(node, result);
+		return null;
+	}
+
+	// MULTIPLY
+	public Object visit(ASTMultiassign node, Object data) {
+		compoundAssign(node, RegisterCode.TIMES);
+		return null;
+	}
+
+	// DIVIDE
+	public Object visit(ASTDivassign node, Object data) {
+		compoundAssign(node, RegisterCode.DIVIDE);
+		return null;
+	}
+
+	// DELAY
+	public Object visit(ASTDelay node, Object data) {
+		emit(RegisterCode.DELAY, operand(node, 0));
+		return null;
+	}
+
+	// CLEAR
+	public Object visit(ASTClear node, Object data) {
+		storeConstant(node, ValueInteger.MIN_CHANNEL);
+		return null;
+	}
+
+	// FILL
+	public Object visit(ASTFill node, Object data) {
+		storeConstant(node, ValueInteger.MAX_CHANNEL);
+		return null;
+	}
+
+	// UPDATE
+	public Object visit(ASTUpdate node, Object data) {
+		int red = operand(node, 0);
+		int green = operand(node, 1);
+		int blue = operand(node, 2);
+		int light = operand(node, 3);
+		emit(RegisterCode.UPDATE, site(getStringOfChild(node, 4)), red, green, blue, light);
+		return null;
+	}
+
+	// INFO
+	public Object visit(ASTInfo node, Object data) {
+		emit(RegisterCode.INFO, site(getStringOfChild(node, 0)));
+		return null;
+	}
+
+	// LEDS
+	public Object visit(ASTLeds node, Object data) {
+		emit(RegisterCode.LEDS, site(getStringOfChild(node, 1)), literals.get(node).intValue());
+		return null;
+	}
+
+	// SAVE
+	public Object visit(ASTSave node, Object data) {
+		emit(RegisterCode.SAVE, site(getStringOfChild(node, 0)));
+		return null;
+	}
+}
@@ -0,0 +1,586 @@
+package LEDscript2.interpreter;
+
+import java.util.Arrays;
+
+import LEDscript2.leds.*;
+import LEDscript2.values.*;
+
+/** Runs RegisterCode.
+ *
+ * Each register is held as a type, a long and a Value, so that integers, booleans and
+ * rationals are worked on as primitives rather than as Value objects.  Integer and
+ * boolean operations are done directly; anything else falls back on the Value
+ * classes, so results and errors are the same as in the other engines.
+ *
+ * Calls do not recurse on the Java stack, so recursion is only limited by memory.
+ * Each invocation is a Frame, linked to the frame that called it and reused by a later
+ * call once it returns, and the display of frames by nesting level works as Display
+ * does, including which function a name finds.  A variable of an enclosing function is
+ * the register at its slot in the frame the display holds at its level.  A call a
+ * function makes to itself as the last thing it does reuses the caller's frame, so
+ * such recursion needs no memory at all.
+ *
+ * As nothing is left on the Java stack, the machine can also stop at a DELAY and go on
+ * later.  It is a Scheduler task, so that many programs can share one thread.
+ */
+class RegisterMachine implements Scheduler.Task {
+
+	// Function nesting the display starts with.  It grows if functions nest deeper.
+	private final int initialFunctionNesting = 16;
+	private Frame[] display = new Frame[initialFunctionNesting];
+	private int currentLevel;
+
+	private final Context context;
+
+	// The frame to go on with when resumed, or null once the program has finished
+	private Frame current = null;
+
+	// What each site of the program has found, by its number in the program, and the
+	// frames of each code that have returned, kept to be used again and linked by their
+	// next.  Kept by the run rather than the code, so that the code can be run again.
+	private FunctionDefinition[] siteFunction;
+	private LedArray[] siteArray;
+	private boolean[] siteDone;
+	private Frame[] freeFrames;
+
+	/** An invocation of some code. */
+	static final class Frame {
+		final RegisterCode code;
+		final FunctionDefinition definition;
+		final byte[] types;
+		final long[] bits;
+		final Value[] others;
+
+		// Where to go back to
+		int pc = 0;
+		Frame caller = null;
+		int result = RegisterCode.NO_REGISTER;
+
+		// What this frame replaced in the display
+		Frame replaced = null;
+		int replacedLevel = 0;
+
+		// The next free frame of the same code
+		Frame next = null;
+
+		Frame(RegisterCode code, FunctionDefinition definition) {
+			this.code = code;
+			this.definition = definition;
+			types = new byte[code.registerCount];
+			bits = new long[code.registerCount];
+			others = new Value[code.registerCount];
+			int constants = code.constantTypes.length;
+			System.arraycopy(code.constantTypes, 0, types, code.constantBase, constants);
+			System.arraycopy(code.constantBits, 0, bits, code.constantBase, constants);
+			System.arraycopy(code.constantOthers, 0, others, code.constantBase, constants);
+		}
+
+		// Get a register as a Value.  A variable that hasn't been given a value is undefined.
+		Value get(int register) {
+			if (types[register] == RegisterCode.NONE)
+				throw undefined(code.localNames[register]);
+			return RegisterCode.valueOf(types[register], bits[register], others[register]);
+		}
+
+		// Finish with this frame, clearing its variables, so that it can be kept for a later call.
+		void release() {
+			int locals = code.getLocalCount();
+			Arrays.fill(types, 0, locals, RegisterCode.NONE);
+			Arrays.fill(others, 0, locals, null);
+			caller = null;
+			replaced = null;
+		}
+
+		// Set a register from a Value.
+		void set(int register, Value v) {
+			byte type = RegisterCode.typeOf(v);
+			types[register] = type;
+			bits[register] = RegisterCode.bitsOf(v);
+			if (type == RegisterCode.OTHER)
+				others[register] = v;
+		}
+	}
+
+	/** Ctor. */
+	RegisterMachine(Context context) {
+		this.context = context;
+	}
+
+	/** Run a program to the end, waiting in place at each DELAY. */
+	void run(RegisterCode program) {
+		start(program);
+		for (long delay = resume(); delay != Scheduler.DONE; delay = resume())
+			context.delay(delay);
+	}
+
+	/** Start a program, to be run by resume(). */
+	void start(RegisterCode program) {
+		// The top level is numbered last, so its numbers give the program's counts
+		int siteCount = program.siteBase + program.siteNames.length;
+		siteFunction = new FunctionDefinition[siteCount];
+		siteArray = new LedArray[siteCount];
+		siteDone = new boolean[siteCount];
+		freeFrames = new Frame[program.number + 1];
+		currentLevel = 0;
+		display[currentLevel] = new Frame(program, new FunctionDefinition("%main", currentLevel, program.getLocalCount()));
+		current = display[currentLevel];
+	}
+
+	/** Run the program until its next DELAY or its end.  Return the nanoseconds to
+	 * delay, or Scheduler.DONE. */
+	public long resume() {
+		return execute(current);
+	}
+
+	// The error for a variable that doesn't exist or hasn't been given a value.
+	private static ExceptionSemantic undefined(String name) {
+		return new ExceptionSemantic("Variable or parameter " + name + " is undefined.");
+	}
+
+	// Find a function, starting from the current level.  Return null if it doesn't exist.
+	private FunctionDefinition findFunction(String name) {
+		for (int level = currentLevel; level >= 0; level--) {
+			FunctionDefinition definition = display[level].definition.findFunction(name);
+			if (definition != null)
+				return definition;
+		}
+		return null;
+	}
+
+	// Get the LED array of a site, finding it on first use.
+	private LedArray array(RegisterCode code, int site) {
+		LedArray array = siteArray[code.siteBase + site];
+		if (array == null) {
+			array = context.leds.find(code.siteNames[site]);
+			if (array == null)
+				throw new ExceptionSemantic("LED array " + code.siteNames[site] + " is undefined.");
+			siteArray[code.siteBase + site] = array;
+		}
+		return array;
+	}
+
+	// Hold an integer between the bounds given by a clamp operand.
+	private static long clamp(long result, int clamp) {
+		if ((clamp & RegisterCode.CLAMP_LOWER) != 0 && result < 1)
+			return 1;
+		if ((clamp & RegisterCode.CLAMP_UPPER) != 0 && result > 255)
+			return 255;
+		return result;
+	}
+
+	// Do a clamped arithmetic operation on Values.
+	private static Value arithmetic(int opcode, Value left, Value right, int clamp) {
+		ValueInteger lower = ((clamp & RegisterCode.CLAMP_LOWER) != 0) ? ValueInteger.MIN_CHANNEL : null;
+		ValueInteger upper = ((clamp & RegisterCode.CLAMP_UPPER) != 0) ? ValueInteger.MAX_CHANNEL : null;
+		switch (opcode) {
+		case RegisterCode.ADD:
+			return left.addClamped(right, lower, upper);
+		case RegisterCode.SUBTRACT:
+			return left.subtractClamped(right, lower, upper);
+		case RegisterCode.TIMES:
+			return left.multClamped(right, lower, upper);
+		default:
+			return left.divClamped(right, lower, upper);
+		}
+	}
+
+	// Do a comparison on Values.
+	private static Value comparison(int opcode, Value left, Value right) {
+		switch (opcode) {
+		case RegisterCode.EQUAL:
+			return left.eq(right);
+		case RegisterCode.NOT_EQUAL:
+			return left.neq(right);
+		case RegisterCode.GREATER_OR_EQUAL:
+			return left.gte(right);
+		case RegisterCode.LESS_OR_EQUAL:
+			return left.lte(right);
+		case RegisterCode.GREATER:
+			return left.gt(right);
+		default:
+			return left.lt(right);
+		}
+	}
+
+	// Compare two integers.
+	private static boolean compare(int opcode, long left, long right) {
+		switch (opcode) {
+		case RegisterCode.EQUAL:
+			return left == right;
+		case RegisterCode.NOT_EQUAL:
+			return left != right;
+		case RegisterCode.GREATER_OR_EQUAL:
+			return left >= right;
+		case RegisterCode.LESS_OR_EQUAL:
+			return left <= right;
+		case RegisterCode.GREATER:
+			return left > right;
+		default:
+			return left < right;
+		}
+	}
+
+	// Run code, starting from a given frame, until the program ends or reaches a DELAY.
+	// Return the nanoseconds to delay, or Scheduler.DONE.
+	private long execute(Frame frame) {
+		RegisterCode code = frame.code;
+		int[] instructions = code.code;
+		byte[] types = frame.types;
+		long[] bits = frame.bits;
+		Value[] others = frame.others;
+		int pc = frame.pc;
+		while (true) {
+			int opcode = instructions[pc];
+			switch (opcode) {
+			case RegisterCode.MOVE: {
+				int dst = instructions[pc + 1];
+				int src = instructions[pc + 2];
+				byte type = types[src];
+				if (type == RegisterCode.NONE)
+					throw undefined(code.localNames[src]);
+				types[dst] = type;
+				bits[dst] = bits[src];
+				if (type == RegisterCode.OTHER)
+					others[dst] = others[src];
+				pc += 3;
+				break;
+			}
+			case RegisterCode.LOAD: {
+				int dst = instructions[pc + 1];
+				int level = instructions[pc + 2];
+				int register = instructions[pc + 3];
+				if (level < 0 || display[level].types[register] == RegisterCode.NONE)
+					throw undefined(code.siteNames[instructions[pc + 4]]);
+				Frame from = display[level];
+				byte type = from.types[register];
+				types[dst] = type;
+				bits[dst] = from.bits[register];
+				if (type == RegisterCode.OTHER)
+					others[dst] = from.others[register];
+				pc += 5;
+				break;
+			}
+			case RegisterCode.STORE: {
+				Frame to = display[instructions[pc + 1]];
+				int register = instructions[pc + 2];
+				int src = instructions[pc + 3];
+				byte type = types[src];
+				to.types[register] = type;
+				to.bits[register] = bits[src];
+				if (type == RegisterCode.OTHER)
+					to.others[register] = others[src];
+				pc += 4;
+				break;
+			}
+			case RegisterCode.ASSIGN: {
+				int dst = instructions[pc + 1];
+				int src = instructions[pc + 2];
+				// Integers below 1 are held at 1
+				if (types[src] == RegisterCode.INTEGER)
+					bits[dst] = (bits[src] < 1) ? 1 : bits[src];
+				else
+					bits[dst] = ValueInteger.assigned(frame.get(src)).longValue();
+				types[dst] = RegisterCode.INTEGER;
+				pc += 3;
+				break;
+			}
+			case RegisterCode.ADD:
+			case RegisterCode.SUBTRACT:
+			case RegisterCode.TIMES:
+			case RegisterCode.DIVIDE: {
+				int dst = instructions[pc + 1];
+				int a = instructions[pc + 2];
+				int b = instructions[pc + 3];
+				int clamp = instructions[pc + 4];
+				if (types[a] == RegisterCode.INTEGER && types[b] == RegisterCode.INTEGER) {
+					long left = bits[a];
+					long right = bits[b];
+					long result;
+					if (opcode == RegisterCode.ADD)
+						result = left + right;
+					else if (opcode == RegisterCode.SUBTRACT)
+						result = left - right;
+					else if (opcode == RegisterCode.TIMES)
+						result = left * right;
+					else
+						result = left / right;
+					types[dst] = RegisterCode.INTEGER;
+					bits[dst] = clamp(result, clamp);
+				} else {
+					Value result = arithmetic(opcode, frame.get(a), frame.get(b), clamp);
+					// An assignment only takes integers
+					if ((clamp & RegisterCode.CLAMP_ASSIGN) != 0)
+						result = ValueInteger.assigned(result);
+					frame.set(dst, result);
+				}
+				pc += 5;
+				break;
+			}
+			case RegisterCode.EQUAL:
+			case RegisterCode.NOT_EQUAL:
+			case RegisterCode.GREATER_OR_EQUAL:
+			case RegisterCode.LESS_OR_EQUAL:
+			case RegisterCode.GREATER:
+			case RegisterCode.LESS: {
+				int dst = instructions[pc + 1];
+				int a = instructions[pc + 2];
+				int b = instructions[pc + 3];
+				if (types[a] == RegisterCode.INTEGER && types[b] == RegisterCode.INTEGER) {
+					types[dst] = RegisterCode.BOOLEAN;
+					bits[dst] = compare(opcode, bits[a], bits[b]) ? 1 : 0;
+				} else
+					frame.set(dst, comparison(opcode, frame.get(a), frame.get(b)));
+				pc += 4;
+				break;
+			}
+			case RegisterCode.OR:
+			case RegisterCode.AND: {
+				int dst = instructions[pc + 1];
+				int a = instructions[pc + 2];
+				int b = instructions[pc + 3];
+				if (types[a] == RegisterCode.BOOLEAN && types[b] == RegisterCode.BOOLEAN) {
+					types[dst] = RegisterCode.BOOLEAN;
+					bits[dst] = (opcode == RegisterCode.OR) ? (bits[a] | bits[b]) : (bits[a] & bits[b]);
+				} else if (opcode == RegisterCode.OR)
+					frame.set(dst, frame.get(a).or(frame.get(b)));
+				else
+					frame.set(dst, frame.get(a).and(frame.get(b)));
+				pc += 4;
+				break;
+			}
+			case RegisterCode.NOT: {
+				int dst = instructions[pc + 1];
+				int a = instructions[pc + 2];
+				if (types[a] == RegisterCode.BOOLEAN) {
+					types[dst] = RegisterCode.BOOLEAN;
+					bits[dst] = bits[a] ^ 1;
+				} else
+					frame.set(dst, frame.get(a).not());
+				pc += 3;
+				break;
+			}
+			case RegisterCode.PLUS: {
+				int dst = instructions[pc + 1];
+				int a = instructions[pc + 2];
+				if (types[a] == RegisterCode.INTEGER) {
+					types[dst] = RegisterCode.INTEGER;
+					bits[dst] = bits[a];
+				} else
+					frame.set(dst, frame.get(a).unary_plus());
+				pc += 3;
+				break;
+			}
+			case RegisterCode.MINUS: {
+				int dst = instructions[pc + 1];
+				int a = instructions[pc + 2];
+				if (types[a] == RegisterCode.INTEGER) {
+					types[dst] = RegisterCode.INTEGER;
+					bits[dst] = -bits[a];
+				} else
+					frame.set(dst, frame.get(a).unary_minus());
+				pc += 3;
+				break;
+			}
+			case RegisterCode.JUMP:
+				pc = instructions[pc + 1];
+				break;
+			case RegisterCode.IF_FALSE: {
+				int a = instructions[pc + 1];
+				if (types[a] != RegisterCode.BOOLEAN) {
+					if (types[a] == RegisterCode.NONE)
+						throw undefined(code.localNames[a]);
+					throw new ExceptionSemantic("The test expression of an if statement must be boolean.");
+				}
+				pc = (bits[a] != 0) ? pc + 3 : instructions[pc + 2];
+				break;
+			}
+			case RegisterCode.FOR_TRUE: {
+				int a = instructions[pc + 1];
+				if (types[a] != RegisterCode.BOOLEAN) {
+					if (types[a] == RegisterCode.NONE)
+						throw undefined(code.localNames[a]);
+					throw new ExceptionSemantic("The test expression of a for loop must be boolean.");
+				}
+				pc = (bits[a] != 0) ? instructions[pc + 2] : pc + 3;
+				break;
+			}
+			case RegisterCode.JUMP_UNLESS:
+			case RegisterCode.JUMP_IF: {
+				int comparison = instructions[pc + 1];
+				int a = instructions[pc + 2];
+				int b = instructions[pc + 3];
+				boolean test;
+				if (types[a] == RegisterCode.INTEGER && types[b] == RegisterCode.INTEGER)
+					test = compare(comparison, bits[a], bits[b]);
+				else
+					test = comparison(comparison, frame.get(a), frame.get(b)).booleanValue();
+				pc = (test == (opcode == RegisterCode.JUMP_IF)) ? instructions[pc + 4] : pc + 5;
+				break;
+			}
+			case RegisterCode.FUNCTION: {
+				int site = instructions[pc + 1];
+				// Already defined?
+				if (!siteDone[code.siteBase + site]) {
+					String name = code.siteNames[site];
+					if (frame.definition.findFunction(name) != null)
+						throw new ExceptionSemantic("Function " + name + " already exists.");
+					RegisterCode function = code.functions[instructions[pc + 2]];
+					FunctionDefinition currentFunctionDefinition = new FunctionDefinition(name, currentLevel + 1, function.getLocalCount());
+					for (int i = 0; i < function.parameters.length; i++)
+						currentFunctionDefinition.defineParameter(function.parameters[i]);
+					frame.definition.addFunction(currentFunctionDefinition);
+					currentFunctionDefinition.setRegisterCode(function);
+					siteDone[code.siteBase + site] = true;
+				}
+				pc += 3;
+				break;
+			}
+			case RegisterCode.FIND: {
+				int site = instructions[pc + 1];
+				if (siteFunction[code.siteBase + site] == null) {
+					String name = code.siteNames[site];
+					FunctionDefinition fndef = findFunction(name);
+					if (fndef == null)
+						throw new ExceptionSemantic("Function " + name + " is undefined.");
+					if (instructions[pc + 2] != 0 && !fndef.hasReturn())
+						throw new ExceptionSemantic(
+								"Function " + name + " is being invoked in an expression but does not have a return value.");
+					fndef.checkArgumentCount(instructions[pc + 3]);
+					siteFunction[code.siteBase + site] = fndef;
+				}
+				pc += 4;
+				break;
+			}
+			case RegisterCode.TAIL_CALL:
+			case RegisterCode.CALL: {
+				FunctionDefinition function = siteFunction[code.siteBase + instructions[pc + 1]];
+				int argumentBase = instructions[pc + 3];
+				int argumentCount = instructions[pc + 4];
+				if (opcode == RegisterCode.TAIL_CALL && function == frame.definition) {
+					// A function returning the value of a call to itself.  This frame is done
+					// with, so it becomes the callee's: the arguments replace the parameters,
+					// the other variables are cleared, and it starts again.
+					System.arraycopy(types, argumentBase, types, 0, argumentCount);
+					System.arraycopy(bits, argumentBase, bits, 0, argumentCount);
+					System.arraycopy(others, argumentBase, others, 0, argumentCount);
+					int locals = code.getLocalCount();
+					Arrays.fill(types, argumentCount, locals, RegisterCode.NONE);
+					Arrays.fill(others, argumentCount, locals, null);
+					pc = 0;
+					break;
+				}
+				// Otherwise an ordinary call, which TAIL_CALL is laid out the same as
+				RegisterCode calleeCode = function.getRegisterCode();
+				Frame callee = freeFrames[calleeCode.number];
+				if (callee != null)
+					freeFrames[calleeCode.number] = callee.next;
+				else
+					callee = new Frame(calleeCode, function);
+				// First registers are always arguments
+				System.arraycopy(types, argumentBase, callee.types, 0, argumentCount);
+				System.arraycopy(bits, argumentBase, callee.bits, 0, argumentCount);
+				System.arraycopy(others, argumentBase, callee.others, 0, argumentCount);
+				frame.pc = pc + RegisterCode.length(RegisterCode.CALL);
+				callee.caller = frame;
+				callee.result = instructions[pc + 2];
+				int changeLevel = function.getLevel();
+				if (changeLevel >= display.length)
+					display = Arrays.copyOf(display, changeLevel * 2);
+				callee.replaced = display[changeLevel];
+				callee.replacedLevel = currentLevel;
+				display[changeLevel] = callee;
+				currentLevel = changeLevel;
+				frame = callee;
+				code = frame.code;
+				instructions = code.code;
+				types = frame.types;
+				bits = frame.bits;
+				others = frame.others;
+				pc = 0;
+				break;
+			}
+			case RegisterCode.RETURN: {
+				int src = instructions[pc + 1];
+				if (src != RegisterCode.NO_REGISTER && types[src] == RegisterCode.NONE)
+					throw undefined(code.localNames[src]);
+				Frame caller = frame.caller;
+				if (caller == null) {
+					current = null;
+					return Scheduler.DONE;
+				}
+				display[frame.definition.getLevel()] = frame.replaced;
+				currentLevel = frame.replacedLevel;
+				if (frame.result != RegisterCode.NO_REGISTER) {
+					byte type = types[src];
+					caller.types[frame.result] = type;
+					caller.bits[frame.result] = bits[src];
+					if (type == RegisterCode.OTHER)
+						caller.others[frame.result] = others[src];
+				}
+				frame.release();
+				frame.next = freeFrames[code.number];
+				freeFrames[code.number] = frame;
+				frame = caller;
+				code = frame.code;
+				instructions = code.code;
+				types = frame.types;
+				bits = frame.bits;
+				others = frame.others;
+				pc = frame.pc;
+				break;
+			}
+			case RegisterCode.DELAY:
+				// Stop here, to go on with the next instruction once the delay is over
+				frame.pc = pc + 2;
+				current = frame;
+				return Scheduler.nanoseconds(frame.get(instructions[pc + 1]));
+			case RegisterCode.LEDS: {
+				int site = instructions[pc + 1];
+				// Already defined?
+				if (!siteDone[code.siteBase + site]) {
+					long count = bits[instructions[pc + 2]];
+					if (count > Integer.MAX_VALUE)
+						throw new ExceptionSemantic("LED array cannot have " + count + " LEDs.");
+					context.leds.define(code.siteNames[site], (int) count);
+					siteDone[code.siteBase + site] = true;
+				}
+				pc += 3;
+				break;
+			}
+			case RegisterCode.UPDATE: {
+				int site = instructions[pc + 1];
+				int red = instructions[pc + 2];
+				int green = instructions[pc + 3];
+				int blue = instructions[pc + 4];
+				int light = instructions[pc + 5];
+				int r = (types[red] == RegisterCode.INTEGER) ? (int) (double) bits[red] : (int) frame.get(red).doubleValue();
+				int g = (types[green] == RegisterCode.INTEGER) ? (int) (double) bits[green]
+						: (int) frame.get(green).doubleValue();
+				int b = (types[blue] == RegisterCode.INTEGER) ? (int) (double) bits[blue]
+						: (int) frame.get(blue).doubleValue();
+				long led = (types[light] == RegisterCode.INTEGER) ? bits[light] : frame.get(light).longValue();
+				LedArray array = array(code, site);
+				if (!array.contains(led))
+					throw new ExceptionSemantic("LED " + led + " is not in led array " + array.getName() + ".");
+				array.set((int) led, r, g, b);
+				pc += 6;
+				break;
+			}
+			case RegisterCode.WRITE:
+				context.write(array(code, instructions[pc + 1]));
+				pc += 2;
+				break;
+			case RegisterCode.INFO:
+				context.info(array(code, instructions[pc + 1]));
+				pc += 2;
+				break;
+			case RegisterCode.SAVE:
+				context.save(array(code, instructions[pc + 1]));
+				pc += 2;
+				break;
+			default:
+				throw new ExceptionSemantic("Unknown opcode " + opcode + ".");
+			}
+		}
+	}
+}
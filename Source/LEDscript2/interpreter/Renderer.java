@@ -0,0 +1,140 @@
+package LEDscript2.interpreter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+import LEDscript2.leds.*;
+
+/** Shows what a program WRITEs at a fixed frame rate, on a thread of its own.
+ *
+ * Each array written has three buffers.  WRITE copies the array into its back buffer
+ * and swaps that with its pending frame.  On each tick the render thread swaps the
+ * pending frame of every array written since the last tick with its front buffer, and
+ * shows the front buffers.  So a program never waits for them to be shown, and never changes
+ * a frame while it's being shown, however slow either side is.  An array written more
+ * than once between ticks shows only the last, as a real display would.
+ *
+ * Ticks are counted from when the last was due, as the Scheduler counts delays, so the
+ * frame rate doesn't drift.
+ *
+ * An error showing frames stops the render thread, and is thrown to the program by its
+ * next WRITE, or when it stops, as it would have been by the WRITE itself without a
+ * frame rate.
+ */
+class Renderer {
+
+	// The buffers of one array
+	private static final class Buffers {
+		LedArray back;
+		LedArray pending;
+		LedArray front;
+		boolean fresh = false;
+
+		Buffers(LedArray array) {
+			back = new LedArray(array.getName(), array.getCount());
+			pending = new LedArray(array.getName(), array.getCount());
+			front = new LedArray(array.getName(), array.getCount());
+		}
+	}
+
+	private final LedSink output;
+	private final long period;
+	private final Thread thread;
+	private volatile boolean stopping = false;
+	private volatile ExceptionSemantic failure = null;
+
+	// Buffers by array name, in the order the arrays were first written.  Guarded by this.
+	private final LinkedHashMap<String, Buffers> buffers = new LinkedHashMap<String, Buffers>();
+
+	/** Ctor, given where to show frames and how many to show a second. */
+	Renderer(LedSink output, double framesPerSecond) {
+		this.output = output;
+		period = Math.max(1, (long) (1e9 / framesPerSecond));
+		thread = new Thread(new Runnable() {
+			public void run() {
+				render();
+			}
+		}, "sili-render");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/** Hand over a frame of an array for WRITE. */
+	synchronized void present(LedArray array) {
+		rethrow();
+		Buffers frame = buffers.get(array.getName());
+		if (frame == null) {
+			frame = new Buffers(array);
+			buffers.put(array.getName(), frame);
+		}
+		frame.back.copyFrom(array);
+		// A frame that is skipped still changed its LEDs, so the next one shown carries its dirty bits
+		if (frame.fresh)
+			frame.back.markDirty(frame.pending);
+		LedArray ready = frame.back;
+		frame.back = frame.pending;
+		frame.pending = ready;
+		frame.fresh = true;
+	}
+
+	/** Show the frames not yet shown, then stop. */
+	void stop() {
+		stopping = true;
+		// Woken rather than interrupted, as an interrupt would close a sink's channel mid-frame
+		LockSupport.unpark(thread);
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		rethrow();
+	}
+
+	// Throw the error that stopped the render thread, if there was one, once only.
+	private void rethrow() {
+		ExceptionSemantic thrown = failure;
+		if (thrown != null) {
+			failure = null;
+			throw thrown;
+		}
+	}
+
+	// The render thread
+	private void render() {
+		try {
+			long deadline = System.nanoTime();
+			while (!stopping) {
+				deadline = Scheduler.nextDeadline(deadline, period);
+				long remaining;
+				while (!stopping && (remaining = deadline - System.nanoTime()) > 0)
+					LockSupport.parkNanos(this, remaining);
+				show();
+			}
+			show();
+		} catch (ExceptionSemantic e) {
+			failure = e;
+		}
+	}
+
+	// Show the frames handed over since the last tick.
+	private void show() {
+		ArrayList<LedArray> frames = new ArrayList<LedArray>();
+		synchronized (this) {
+			for (Buffers frame : buffers.values())
+				if (frame.fresh) {
+					LedArray ready = frame.pending;
+					frame.pending = frame.front;
+					frame.front = ready;
+					frame.fresh = false;
+					frames.add(ready);
+				}
+		}
+		// present() never touches a front buffer, so they are shown without the lock
+		for (LedArray frame : frames) {
+			output.write(frame);
+			frame.markClean();
+		}
+		output.flush();
+	}
+}
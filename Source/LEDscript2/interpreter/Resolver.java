@@ -0,0 +1,152 @@
+package LEDscript2.interpreter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import LEDscript2.parser.*;
+
+/** Resolves every variable and parameter in a program to a fixed scope level and slot
+ * before it runs.
+ *
+ * A function's slots are its parameters, in order, then each variable assigned in its
+ * body that isn't already a variable or parameter of a function it is nested in.  Any
+ * other name refers to the innermost enclosing function that has it, or is undefined.
+ * The level is the nesting depth: 0 for the program, 1 for a function defined in it,
+ * and so on, matching the levels of the Display.
+ *
+ * It also marks which functions can be inlined, and numbers the sites: the nodes that
+ * keep something from one visit to the next, which the visitor keeps in a table of its
+ * own rather than in the tree.
+ */
+class Resolver {
+
+	// The slots of each scope being resolved, outermost first
+	private final ArrayList<HashMap<String, Integer>> scopes = new ArrayList<HashMap<String, Integer>>();
+
+	// The number of sites numbered so far
+	private int siteCount = 0;
+
+	/** Resolve a program. */
+	static void resolve(ASTCode program) {
+		Resolver resolver = new Resolver();
+		HashMap<String, Integer> slots = new HashMap<String, Integer>();
+		resolver.defineVariables(program, slots);
+		program.slotCount = slots.size();
+		resolver.scopes.add(slots);
+		resolver.resolveChildren(program);
+		program.siteCount = resolver.siteCount;
+	}
+
+	// Resolve a function definition.
+	private void resolveFunction(ASTFnDef node) {
+		HashMap<String, Integer> slots = new HashMap<String, Integer>();
+		// Child 1 - parameters, which are always the first slots
+		SimpleNode parmlist = (SimpleNode) node.jjtGetChild(1);
+		for (int i = 0; i < parmlist.jjtGetNumChildren(); i++)
+			define(slots, getTokenOfChild(parmlist, i));
+		// Child 2 - function body
+		defineVariables(node.jjtGetChild(2), slots);
+		node.slotCount = slots.size();
+		node.level = scopes.size();
+		// Child 3 - optional return expression
+		node.inlinable = node.fnHasReturn && node.jjtGetChild(2).jjtGetNumChildren() == 0
+				&& !containsCall(node.jjtGetChild(3));
+		scopes.add(slots);
+		resolveChildren(node);
+		scopes.remove(scopes.size() - 1);
+	}
+
+	// True if a node contains a function invocation.
+	private static boolean containsCall(Node node) {
+		if (node instanceof ASTFnInvoke)
+			return true;
+		for (int i = 0; i < node.jjtGetNumChildren(); i++)
+			if (containsCall(node.jjtGetChild(i)))
+				return true;
+		return false;
+	}
+
+	// Get the token value of the ith child of a given node.
+	private static String getTokenOfChild(SimpleNode node, int childIndex) {
+		return ((SimpleNode) node.jjtGetChild(childIndex)).tokenValue;
+	}
+
+	// True if a node assigns to the variable named by its first child.
+	private static boolean isAssignment(Node node) {
+		return node instanceof ASTAssignment || node instanceof ASTAddassign || node instanceof ASTDecassign
+				|| node instanceof ASTflipassign || node instanceof ASTMultiassign || node instanceof ASTDivassign
+				|| node instanceof ASTClear || node instanceof ASTFill;
+	}
+
+	// Give a name the next slot, if it doesn't have one.
+	private static void define(HashMap<String, Integer> slots, String name) {
+		if (!slots.containsKey(name))
+			slots.put(name, Integer.valueOf(slots.size()));
+	}
+
+	// Give a slot to each variable assigned within a node, but not within the functions
+	// it defines, unless an enclosing function already has it.
+	private void defineVariables(Node node, HashMap<String, Integer> slots) {
+		if (node instanceof ASTFnDef)
+			return;
+		if (isAssignment(node)) {
+			String name = getTokenOfChild((SimpleNode) node, 0);
+			if (!isEnclosingVariable(name))
+				define(slots, name);
+		}
+		for (int i = 0; i < node.jjtGetNumChildren(); i++)
+			defineVariables(node.jjtGetChild(i), slots);
+	}
+
+	// True if a name is a variable or parameter of a scope being resolved.
+	private boolean isEnclosingVariable(String name) {
+		for (int level = 0; level < scopes.size(); level++)
+			if (scopes.get(level).containsKey(name))
+				return true;
+		return false;
+	}
+
+	// Set the level and slot of a node that refers to a given name.
+	private void resolveName(SimpleNode node, String name) {
+		for (int level = scopes.size() - 1; level >= 0; level--) {
+			Integer slot = scopes.get(level).get(name);
+			if (slot != null) {
+				node.level = level;
+				node.slot = slot.intValue();
+				return;
+			}
+		}
+		node.level = -1;
+		node.slot = -1;
+	}
+
+	// True if a node is a site: one that finds an LED array or function, or defines one,
+	// or is a literal whose value is worked out once.
+	private static boolean isSite(Node node) {
+		return node instanceof ASTWrite || node instanceof ASTUpdate || node instanceof ASTInfo
+				|| node instanceof ASTSave || node instanceof ASTLeds || node instanceof ASTFnDef
+				|| node instanceof ASTCall || node instanceof ASTFnInvoke || node instanceof ASTCharacter
+				|| node instanceof ASTInteger || node instanceof ASTRational;
+	}
+
+	// Resolve the names used within a node.
+	private void resolve(Node node) {
+		if (isSite(node))
+			((SimpleNode) node).site = siteCount++;
+		if (node instanceof ASTFnDef) {
+			resolveFunction((ASTFnDef) node);
+			return;
+		}
+		if (node instanceof ASTDereference)
+			resolveName((SimpleNode) node, ((SimpleNode) node).tokenValue);
+		else if (isAssignment(node))
+			resolveName((SimpleNode) node, getTokenOfChild((SimpleNode) node, 0));
+		resolveChildren(node);
+	}
+
+	// Resolve the names used within the children of a node.
+	private void resolveChildren(Node node) {
+		for (int i = 0; i < node.jjtGetNumChildren(); i++)
+			resolve(node.jjtGetChild(i));
+	}
+}
@@ -0,0 +1,153 @@
+package LEDscript2.interpreter;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import LEDscript2.values.Value;
+
+/** Runs programs that give up the thread at each DELAY, so that many can share one thread.
+ *
+ * A task runs until it reaches a DELAY and says how long it is to wait.  The scheduler
+ * then runs whichever task is due next, waiting until it is.  A task's next time is
+ * counted from when it was due, not from when it got to run, so lateness doesn't build
+ * up over a run of delays: a script that draws a frame then delays 0.04 seconds gets 25
+ * frames a second, as long as drawing takes less than that.  A task that falls more than
+ * a whole delay behind starts counting again from now, rather than rushing to catch up.
+ */
+class Scheduler {
+
+	/** Something the scheduler runs. */
+	interface Task {
+		/** Run until the next DELAY or the end.  Return how many nanoseconds to wait
+		 * before running again, or DONE. */
+		long resume();
+	}
+
+	/** Returned by a task that has finished. */
+	static final long DONE = -1;
+
+	// Parking a thread is only accurate to a millisecond or so, so a thread that has one
+	// waiter spends the last of a wait yielding instead.  Threads that many programs wait
+	// on at once would each spin a CPU, so they park for the whole wait, and the drift
+	// correction of the next deadline makes up for parking late.
+	private static final long spinNanos = 1000000;
+
+	// A task and when it is next due
+	private static final class Entry implements Comparable<Entry> {
+		final Task task;
+		long deadline;
+		long order;
+
+		Entry(Task task, long deadline, long order) {
+			this.task = task;
+			this.deadline = deadline;
+			this.order = order;
+		}
+
+		// Soonest first, and first come first served between tasks due together.
+		// Times from System.nanoTime() are compared by their difference, as they may wrap.
+		public int compareTo(Entry other) {
+			long difference = deadline - other.deadline;
+			if (difference != 0)
+				return (difference < 0) ? -1 : 1;
+			return (order < other.order) ? -1 : ((order > other.order) ? 1 : 0);
+		}
+	}
+
+	private final PriorityQueue<Entry> queue = new PriorityQueue<Entry>();
+	private long entries = 0;
+
+	/** Add a task, to start straight away. */
+	void add(Task task) {
+		queue.add(new Entry(task, System.nanoTime(), entries++));
+	}
+
+	/** Run the tasks until they have all finished.  Return false if the thread was
+	 * interrupted first, leaving it interrupted and the tasks unfinished. */
+	boolean run() {
+		while (!queue.isEmpty()) {
+			Entry entry = queue.poll();
+			// Only this scheduler waits on its thread
+			if (!waitUntil(entry.deadline, true)) {
+				queue.add(entry);
+				return false;
+			}
+			long delay = entry.task.resume();
+			if (delay != DONE) {
+				entry.deadline = nextDeadline(entry.deadline, delay);
+				entry.order = entries++;
+				queue.add(entry);
+			}
+		}
+		return true;
+	}
+
+	/** Get the nanoseconds in a number of seconds given to DELAY.  Less than none is none. */
+	static long nanoseconds(Value seconds) {
+		double nanoseconds = seconds.doubleValue() * 1e9;
+		if (!(nanoseconds > 0))
+			return 0;
+		// Long enough to be forever, short enough not to overflow a deadline
+		return (long) Math.min(nanoseconds, Long.MAX_VALUE / 4);
+	}
+
+	/** Get the deadline that follows a given one after a delay in nanoseconds. */
+	static long nextDeadline(long deadline, long delay) {
+		long now = System.nanoTime();
+		if (now - deadline > delay)
+			deadline = now;
+		return deadline + delay;
+	}
+
+	/** Wait until a time given by System.nanoTime(), spending the last of the wait
+	 * yielding if spin is true, or else parking for all of it.  Return false if the thread
+	 * was interrupted first, leaving it interrupted. */
+	static boolean waitUntil(long deadline, boolean spin) {
+		while (!Thread.currentThread().isInterrupted()) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0)
+				return true;
+			if (!spin)
+				LockSupport.parkNanos(remaining);
+			else if (remaining > spinNanos)
+				LockSupport.parkNanos(remaining - spinNanos);
+			else
+				Thread.yield();
+		}
+		return false;
+	}
+
+	/** The deadlines of a program that waits in place at each DELAY rather than giving up
+	 * its thread, counting from when its last delay was due just as the scheduler does. */
+	static final class Timeline {
+		private long deadline = System.nanoTime();
+		private long waited = 0;
+		private boolean spin = false;
+
+		/** Say whether the program has its thread to itself, so that the last of each wait
+		 * can be spent yielding, to end it more exactly.  It doesn't unless told it does. */
+		void setSpin(boolean spin) {
+			this.spin = spin;
+		}
+
+		/** Wait for a DELAY of a number of seconds. */
+		void delay(Value seconds) {
+			delay(nanoseconds(seconds));
+		}
+
+		/** Wait for a delay in nanoseconds. */
+		void delay(long nanoseconds) {
+			deadline = nextDeadline(deadline, nanoseconds);
+			long start = System.nanoTime();
+			boolean finished = waitUntil(deadline, spin);
+			waited += System.nanoTime() - start;
+			if (!finished)
+				throw new ExceptionSemantic("Interrupted during a delay.");
+		}
+
+		/** Get the nanoseconds spent waiting so far. */
+		long getWaited() {
+			return waited;
+		}
+	}
+}
@@ -0,0 +1,410 @@
+package LEDscript2.interpreter;
+
+import LEDscript2.leds.*;
+import LEDscript2.values.*;
+
+/** A compiled statement.
+ *
+ * As with Expression, each kind of statement is its own final subclass holding its
+ * compiled children in fields.  What a statement finds as it runs, such as the LED
+ * array it names, is kept at its site in the context, so that a compiled program can
+ * be run again, and in several contexts at once.
+ */
+abstract class Statement {
+
+	/** Execute this statement. */
+	abstract void execute(Context context);
+
+	/** A whole program, which makes the sites of each run. */
+	static final class Program extends Statement {
+		private final Statement body;
+		private final int siteCount;
+
+		Program(Statement body, int siteCount) {
+			this.body = body;
+			this.siteCount = siteCount;
+		}
+
+		void execute(Context context) {
+			context.sites = new Object[siteCount];
+			body.execute(context);
+		}
+	}
+
+	/** A sequence of statements. */
+	static final class Block extends Statement {
+		private final Statement[] statements;
+
+		Block(Statement[] statements) {
+			this.statements = statements;
+		}
+
+		void execute(Context context) {
+			for (int i = 0; i < statements.length; i++)
+				statements[i].execute(context);
+		}
+	}
+
+	/** A statement that does nothing, such as an empty block. */
+	static final class Empty extends Statement {
+		void execute(Context context) {
+		}
+	}
+
+	/** Function definition */
+	static final class FunctionDef extends Statement {
+		private final String name;
+		private final String[] parameters;
+		private final int slotCount;
+		private final Statement body;
+		private final Expression returnExpression;
+		private final Expression inlineFunction;
+		private final int site;
+
+		FunctionDef(String name, String[] parameters, int slotCount, Statement body, Expression returnExpression,
+				Expression inlineFunction, int site) {
+			this.name = name;
+			this.parameters = parameters;
+			this.slotCount = slotCount;
+			this.body = body;
+			this.returnExpression = returnExpression;
+			this.inlineFunction = inlineFunction;
+			this.site = site;
+		}
+
+		void execute(Context context) {
+			// Already defined?
+			if (context.sites[site] != null)
+				return;
+			if (context.scope.findFunctionInCurrentLevel(name) != null)
+				throw new ExceptionSemantic("Function " + name + " already exists.");
+			FunctionDefinition currentFunctionDefinition = new FunctionDefinition(name, context.scope.getLevel() + 1, slotCount);
+			for (int i = 0; i < parameters.length; i++)
+				currentFunctionDefinition.defineParameter(parameters[i]);
+			context.scope.addFunction(currentFunctionDefinition);
+			currentFunctionDefinition.setCompiledFunction(new Expression.FunctionBody(body, returnExpression),
+					returnExpression != null);
+			if (inlineFunction != null)
+				currentFunctionDefinition.setInlineFunction(inlineFunction);
+			context.sites[site] = currentFunctionDefinition;
+		}
+	}
+
+	/** Function call */
+	static final class Call extends Statement {
+		private final Expression.CallSite site;
+
+		Call(Expression.CallSite site) {
+			this.site = site;
+		}
+
+		void execute(Context context) {
+			site.call(context, false);
+		}
+	}
+
+	/** IF, with an optional ELSE */
+	static final class If extends Statement {
+		private final Expression test;
+		private final Statement ifTrue;
+		private final Statement ifFalse;
+
+		If(Expression test, Statement ifTrue, Statement ifFalse) {
+			this.test = test;
+			this.ifTrue = ifTrue;
+			this.ifFalse = ifFalse;
+		}
+
+		void execute(Context context) {
+			Value hopefullyValueBoolean = test.evaluate(context);
+			if (!(hopefullyValueBoolean instanceof ValueBoolean))
+				throw new ExceptionSemantic("The test expression of an if statement must be boolean.");
+			if (((ValueBoolean) hopefullyValueBoolean).booleanValue())
+				ifTrue.execute(context);
+			else if (ifFalse != null)
+				ifFalse.execute(context);
+		}
+	}
+
+	/** FOR loop */
+	static final class For extends Statement {
+		private final Statement initialise;
+		private final Expression test;
+		private final Statement increment;
+		private final Statement body;
+
+		For(Statement initialise, Expression test, Statement increment, Statement body) {
+			this.initialise = initialise;
+			this.test = test;
+			this.increment = increment;
+			this.body = body;
+		}
+
+		void execute(Context context) {
+			initialise.execute(context);
+			while (true) {
+				Value hopefullyValueBoolean = test.evaluate(context);
+				if (!(hopefullyValueBoolean instanceof ValueBoolean))
+					throw new ExceptionSemantic("The test expression of a for loop must be boolean.");
+				if (!((ValueBoolean) hopefullyValueBoolean).booleanValue())
+					break;
+				body.execute(context);
+				increment.execute(context);
+			}
+		}
+	}
+
+	/** A statement that stores into a variable at a level and slot given by the Resolver. */
+	abstract static class Assign extends Statement {
+		private final int level;
+		private final int slot;
+
+		Assign(int level, int slot) {
+			this.level = level;
+			this.slot = slot;
+		}
+
+		// Store into the variable.
+		final void assign(Context context, Value v) {
+			context.scope.setValue(level, slot, v);
+		}
+	}
+
+	/** Assignment.  Integers below 1 are held at 1. */
+	static final class Assignment extends Assign {
+		private final Expression value;
+
+		Assignment(int level, int slot, Expression value) {
+			super(level, slot);
+			this.value = value;
+		}
+
+		void execute(Context context) {
+			assign(context, ValueInteger.assigned(value.evaluate(context)));
+		}
+	}
+
+	/** BRIGHTEN  adds to a variable, holding it in 1-255 */
+	static final class AddAssign extends Assign {
+		private final Expression variable;
+		private final Expression amount;
+
+		AddAssign(int level, int slot, Expression variable, Expression amount) {
+			super(level, slot);
+			this.variable = variable;
+			this.amount = amount;
+		}
+
+		void execute(Context context) {
+			assign(context, variable.evaluate(context).addClamped(amount.evaluate(context), ValueInteger.MIN_CHANNEL,
+					ValueInteger.MAX_CHANNEL));
+		}
+	}
+
+	/** DARKEN  subtracts from a variable, holding it in 1-255 */
+	static final class DecAssign extends Assign {
+		private final Expression variable;
+		private final Expression amount;
+
+		DecAssign(int level, int slot, Expression variable, Expression amount) {
+			super(level, slot);
+			this.variable = variable;
+			this.amount = amount;
+		}
+
+		void execute(Context context) {
+			assign(context, variable.evaluate(context).subtractClamped(amount.evaluate(context),
+					ValueInteger.MIN_CHANNEL, ValueInteger.MAX_CHANNEL));
+		}
+	}
+
+	/** MULTIPLY  multiplies a variable, holding it in 1-255 */
+	static final class MultiAssign extends Assign {
+		private final Expression variable;
+		private final Expression amount;
+
+		MultiAssign(int level, int slot, Expression variable, Expression amount) {
+			super(level, slot);
+			this.variable = variable;
+			this.amount = amount;
+		}
+
+		void execute(Context context) {
+			assign(context, variable.evaluate(context).multClamped(amount.evaluate(context), ValueInteger.MIN_CHANNEL,
+					ValueInteger.MAX_CHANNEL));
+		}
+	}
+
+	/** DIVIDE  divides a variable, holding it in 1-255 */
+	static final class DivAssign extends Assign {
+		private final Expression variable;
+		private final Expression amount;
+
+		DivAssign(int level, int slot, Expression variable, Expression amount) {
+			super(level, slot);
+			this.variable = variable;
+			this.amount = amount;
+		}
+
+		void execute(Context context) {
+			assign(context, variable.evaluate(context).divClamped(amount.evaluate(context), ValueInteger.MIN_CHANNEL,
+					ValueInteger.MAX_CHANNEL));
+		}
+	}
+
+	/** FLIP  sets a variable to 255 minus itself, holding it in 1-255 */
+	static final class FlipAssign extends Assign {
+		private final Expression variable;
+
+		FlipAssign(int level, int slot, Expression variable) {
+			super(level, slot);
+			this.variable = variable;
+		}
+
+		void execute(Context context) {
+			assign(context, ValueInteger.MAX_CHANNEL.subtractClamped(variable.evaluate(context),
+					ValueInteger.MIN_CHANNEL, ValueInteger.MAX_CHANNEL));
+		}
+	}
+
+	/** CLEAR  sets a variable to 1 */
+	static final class Clear extends Assign {
+		Clear(int level, int slot) {
+			super(level, slot);
+		}
+
+		void execute(Context context) {
+			assign(context, ValueInteger.MIN_CHANNEL);
+		}
+	}
+
+	/** FILL  sets a variable to 255 */
+	static final class Fill extends Assign {
+		Fill(int level, int slot) {
+			super(level, slot);
+		}
+
+		void execute(Context context) {
+			assign(context, ValueInteger.MAX_CHANNEL);
+		}
+	}
+
+	/** DELAY  waits for a number of seconds, counted from when the last delay was due */
+	static final class Delay extends Statement {
+		private final Expression seconds;
+
+		Delay(Expression seconds) {
+			this.seconds = seconds;
+		}
+
+		void execute(Context context) {
+			context.delay(seconds.evaluate(context));
+		}
+	}
+
+	/** A statement that works on a named LED array. */
+	abstract static class LedStatement extends Statement {
+		private final String name;
+		private final int site;
+
+		LedStatement(String name, int site) {
+			this.name = name;
+			this.site = site;
+		}
+
+		// Get the LED array, finding it on first use.
+		final LedArray array(Context context) {
+			LedArray array = (LedArray) context.sites[site];
+			if (array == null) {
+				array = context.leds.find(name);
+				if (array == null)
+					throw new ExceptionSemantic("LED array " + name + " is undefined.");
+				context.sites[site] = array;
+			}
+			return array;
+		}
+	}
+
+	/** LEDS  defines an array of LEDs */
+	static final class Leds extends Statement {
+		private final String name;
+		private final long count;
+		private final int site;
+
+		Leds(String name, long count, int site) {
+			this.name = name;
+			this.count = count;
+			this.site = site;
+		}
+
+		void execute(Context context) {
+			// Already defined?
+			if (context.sites[site] != null)
+				return;
+			if (count > Integer.MAX_VALUE)
+				throw new ExceptionSemantic("LED array cannot have " + count + " LEDs.");
+			context.sites[site] = context.leds.define(name, (int) count);
+		}
+	}
+
+	/** UPDATE  sets one LED to a colour */
+	static final class Update extends LedStatement {
+		private final Expression red;
+		private final Expression green;
+		private final Expression blue;
+		private final Expression light;
+
+		Update(Expression red, Expression green, Expression blue, Expression light, String name, int site) {
+			super(name, site);
+			this.red = red;
+			this.green = green;
+			this.blue = blue;
+			this.light = light;
+		}
+
+		void execute(Context context) {
+			// each operand is evaluated once, left to right
+			int r = (int) red.evaluate(context).doubleValue();
+			int g = (int) green.evaluate(context).doubleValue();
+			int b = (int) blue.evaluate(context).doubleValue();
+			long led = light.evaluate(context).longValue();
+			LedArray array = array(context);
+			if (!array.contains(led))
+				throw new ExceptionSemantic("LED " + led + " is not in led array " + array.getName() + ".");
+			array.set((int) led, r, g, b);
+		}
+	}
+
+	/** WRITE  prints the colours of an LED array */
+	static final class Write extends LedStatement {
+		Write(String name, int site) {
+			super(name, site);
+		}
+
+		void execute(Context context) {
+			context.write(array(context));
+		}
+	}
+
+	/** INFO  prints the colour names of an LED array */
+	static final class Info extends LedStatement {
+		Info(String name, int site) {
+			super(name, site);
+		}
+
+		void execute(Context context) {
+			context.info(array(context));
+		}
+	}
+
+	/** SAVE  saves the colours of an LED array to a file */
+	static final class Save extends LedStatement {
+		Save(String name, int site) {
+			super(name, site);
+		}
+
+		void execute(Context context) {
+			context.save(array(context));
+		}
+	}
+}
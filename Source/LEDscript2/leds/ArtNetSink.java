@@ -0,0 +1,130 @@
+package LEDscript2.leds;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.HashMap;
+
+import LEDscript2.interpreter.ExceptionSemantic;
+
+/** Sends frames over UDP as Art-Net, which many LED controllers take.
+ *
+ * A universe holds 512 DMX channels, so 170 RGB LEDs.  Each array is given as many
+ * universes as it needs, one after another in the order arrays are first written,
+ * starting from a given universe.  A frame is an ArtDmx packet for each of its universes,
+ * built in one buffer kept from packet to packet, followed by an ArtSync so that
+ * receivers show the whole frame at once rather than a universe at a time.
+ *
+ * If only changes are sent, a universe none of whose LEDs has changed since the array
+ * was last written isn't sent again, as receivers hold what they were last sent.
+ */
+public class ArtNetSink implements LedSink {
+
+	/** The port Art-Net uses. */
+	public static final int port = 6454;
+
+	private static final int ledsPerUniverse = 170;
+	private static final byte[] id = { 'A', 'r', 't', '-', 'N', 'e', 't', 0 };
+	private static final int opDmx = 0x5000;
+	private static final int opSync = 0x5200;
+	private static final int protocolVersion = 14;
+
+	private final InetSocketAddress address;
+	private final DatagramChannel channel;
+	private final boolean changesOnly;
+	private final ByteBuffer packet = ByteBuffer.allocate(18 + 512);
+	private final HashMap<String, Integer> universes = new HashMap<String, Integer>();
+	private int nextUniverse;
+	private int sequence = 0;
+
+	/** Ctor, given where to send to and the first universe to use. */
+	public ArtNetSink(InetSocketAddress address, int firstUniverse) {
+		this(address, firstUniverse, false);
+	}
+
+	/** Ctor, given where to send to, the first universe to use, and whether to send only
+	 * the universes with LEDs changed since an array was last written. */
+	public ArtNetSink(InetSocketAddress address, int firstUniverse, boolean changesOnly) {
+		this.address = address;
+		this.changesOnly = changesOnly;
+		nextUniverse = firstUniverse;
+		try {
+			channel = DatagramChannel.open();
+			channel.connect(address);
+		} catch (IOException e) {
+			throw new ExceptionSemantic("Can't send LEDs to " + address + ": " + e.getMessage());
+		}
+	}
+
+	public synchronized void write(LedArray array) {
+		Integer first = universes.get(array.getName());
+		if (first == null) {
+			first = nextUniverse;
+			universes.put(array.getName(), first);
+			nextUniverse += Math.max(1, (array.getCount() + ledsPerUniverse - 1) / ledsPerUniverse);
+		}
+		if (changesOnly && array.nextDirty(1) == 0)
+			return;
+		// Sequence numbers run from 1 to 255; 0 would turn reordering off
+		sequence = (sequence % 255) + 1;
+		int[] pixels = array.getPixels();
+		int universe = first - 1;
+		for (int start = 0; start < pixels.length || start == 0; start += ledsPerUniverse) {
+			int end = Math.min(pixels.length, start + ledsPerUniverse);
+			universe++;
+			if (changesOnly && start < pixels.length) {
+				int changed = array.nextDirty(start + 1);
+				if (changed == 0 || changed > end)
+					continue;
+			}
+			int length = (end - start) * 3;
+			// Length must be even, and at least 2
+			int padded = Math.max(2, length + (length & 1));
+			header(opDmx);
+			packet.put((byte) sequence).put((byte) 0);
+			packet.put((byte) (universe & 0xFF)).put((byte) ((universe >> 8) & 0x7F));
+			packet.put((byte) (padded >> 8)).put((byte) padded);
+			for (int led = start; led < end; led++) {
+				int pixel = pixels[led];
+				packet.put((byte) LedArray.red(pixel)).put((byte) LedArray.green(pixel)).put((byte) LedArray.blue(pixel));
+			}
+			for (int i = length; i < padded; i++)
+				packet.put((byte) 0);
+			send();
+		}
+		header(opSync);
+		packet.put((byte) 0).put((byte) 0);
+		send();
+	}
+
+	/** Frames are sent as they come, so there is nothing to flush. */
+	public void flush() {
+	}
+
+	public synchronized void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	// Start a packet with the Art-Net header for an opcode.
+	private void header(int opcode) {
+		packet.clear();
+		packet.put(id);
+		packet.put((byte) opcode).put((byte) (opcode >> 8));	// little-endian, unlike the rest
+		packet.put((byte) 0).put((byte) protocolVersion);
+	}
+
+	// Send the packet built.
+	private void send() {
+		packet.flip();
+		try {
+			channel.write(packet);
+		} catch (IOException e) {
+			throw new ExceptionSemantic("Can't send LEDs to " + address + ": " + e.getMessage());
+		}
+	}
+}
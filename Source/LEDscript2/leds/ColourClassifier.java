@@ -0,0 +1,11 @@
+package LEDscript2.leds;
+
+/** Names the colour of an LED.
+ *
+ * Implementations do their work up front, so that naming a colour is a table lookup.
+ */
+public interface ColourClassifier {
+
+	/** Get the colour name of a packed RGB888 colour. */
+	public String classify(int pixel);
+}
@@ -0,0 +1,119 @@
+package LEDscript2.leds;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import LEDscript2.interpreter.ExceptionSemantic;
+
+/** Writes frames in binary to a file, or to a named pipe that a controller reads.
+ *
+ * Each frame is:
+ *
+ *   "LEDF"            4 bytes
+ *   name length       2 bytes, big-endian
+ *   name              UTF-8
+ *   LED count         4 bytes, big-endian
+ *   red, green, blue  1 byte each, for each LED in order
+ *
+ * or, if only changes are written, only the runs of LEDs changed since the array was
+ * last written:
+ *
+ *   "LEDD"            4 bytes
+ *   name length       2 bytes, big-endian
+ *   name              UTF-8
+ *   LED count         4 bytes, big-endian
+ *   run count         4 bytes, big-endian
+ *   for each run:
+ *     first LED       4 bytes, big-endian, counting from 1
+ *     run length      4 bytes, big-endian
+ *     red, green, blue  1 byte each, for each LED in the run
+ *
+ * An LED that has never been lit is 0-0-0.  Each frame is built in one buffer, kept from
+ * frame to frame, and written with a single write.
+ */
+public class FileSink implements LedSink {
+
+	private static final byte[] magic = { 'L', 'E', 'D', 'F' };
+	private static final byte[] changesMagic = { 'L', 'E', 'D', 'D' };
+	private static final Charset utf8 = Charset.forName("UTF-8");
+
+	private final String path;
+	private final FileChannel channel;
+	private final boolean changesOnly;
+	private ByteBuffer frame = ByteBuffer.allocate(4096);
+
+	/** Ctor, given the path to write to.  A file there already is replaced. */
+	public FileSink(String path) {
+		this(path, false);
+	}
+
+	/** Ctor, given the path to write to and whether to write only the LEDs changed since
+	 * an array was last written.  A file there already is replaced. */
+	public FileSink(String path, boolean changesOnly) {
+		this.path = path;
+		this.changesOnly = changesOnly;
+		try {
+			channel = new FileOutputStream(path).getChannel();
+		} catch (IOException e) {
+			throw new ExceptionSemantic("Can't write LEDs to " + path + ": " + e.getMessage());
+		}
+	}
+
+	public synchronized void write(LedArray array) {
+		byte[] name = array.getName().getBytes(utf8);
+		int[] pixels = array.getPixels();
+		// At worst every other LED has changed, so there is a run for each
+		int length = magic.length + 2 + name.length + 4 + 4 + pixels.length * 3 + (pixels.length + 1) / 2 * 8;
+		if (frame.capacity() < length)
+			frame = ByteBuffer.allocate(Math.max(length, frame.capacity() * 2));
+		frame.clear();
+		if (changesOnly) {
+			if (array.nextDirty(1) == 0)
+				return;
+			frame.put(changesMagic).putShort((short) name.length).put(name).putInt(pixels.length);
+			int runCount = frame.position();
+			int runs = 0;
+			frame.putInt(0);
+			for (int first = array.nextDirty(1); first != 0; first = array.nextDirty(first)) {
+				int end = array.nextClean(first);
+				frame.putInt(first).putInt(end - first);
+				for (int led = first; led < end; led++)
+					put(pixels[led - 1]);
+				runs++;
+				first = end;
+			}
+			frame.putInt(runCount, runs);
+		} else {
+			frame.put(magic).putShort((short) name.length).put(name).putInt(pixels.length);
+			for (int pixel : pixels)
+				put(pixel);
+		}
+		frame.flip();
+		try {
+			while (frame.hasRemaining())
+				channel.write(frame);
+		} catch (IOException e) {
+			throw new ExceptionSemantic("Can't write LEDs to " + path + ": " + e.getMessage());
+		}
+	}
+
+	// Put the channels of a pixel in the frame.
+	private void put(int pixel) {
+		frame.put((byte) LedArray.red(pixel)).put((byte) LedArray.green(pixel)).put((byte) LedArray.blue(pixel));
+	}
+
+	/** Frames are written as they come, so there is nothing to flush. */
+	public void flush() {
+	}
+
+	public synchronized void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
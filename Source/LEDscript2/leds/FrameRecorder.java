@@ -0,0 +1,87 @@
+package LEDscript2.leds;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import LEDscript2.interpreter.ExceptionSemantic;
+
+/** Records the frames of one LED array to a binary file, for SAVE.
+ *
+ * A recording is a header followed by frames, each the same size:
+ *
+ *   "LEDR"            4 bytes
+ *   version           1 byte, 1
+ *   pixel format      1 byte, 1 for red, green, blue a byte each
+ *   name length       2 bytes, big-endian
+ *   name              UTF-8
+ *   LED count         4 bytes, big-endian
+ *   frames            LED count * 3 bytes each, in LED order
+ *
+ * So a frame can be found without reading those before it, as FrameRecording does.
+ * Each frame is built in one buffer, kept from frame to frame, and written to the end
+ * of the file with a single write.  An LED that has never been lit is 0-0-0.
+ */
+public class FrameRecorder {
+
+	static final byte[] magic = { 'L', 'E', 'D', 'R' };
+	static final int version = 1;
+	static final int rgb = 1;
+	static final Charset utf8 = Charset.forName("UTF-8");
+
+	private final String path;
+	private final String name;
+	private final int count;
+	private final FileChannel channel;
+	private final ByteBuffer frame;
+
+	/** Ctor, given the path to record to and the array recorded.  A file there already is replaced. */
+	public FrameRecorder(String path, LedArray array) {
+		this.path = path;
+		name = array.getName();
+		count = array.getCount();
+		byte[] nameBytes = name.getBytes(utf8);
+		frame = ByteBuffer.allocate(Math.max(array.getCount() * 3, magic.length + 4 + nameBytes.length + 4));
+		frame.put(magic).put((byte) version).put((byte) rgb).putShort((short) nameBytes.length).put(nameBytes)
+				.putInt(array.getCount());
+		try {
+			channel = new FileOutputStream(path).getChannel();
+			send();
+		} catch (IOException e) {
+			throw new ExceptionSemantic("Can't record LEDs to " + path + ": " + e.getMessage());
+		}
+	}
+
+	/** Record a frame: the colours of the array as they are now. */
+	public synchronized void write(LedArray array) {
+		int[] pixels = array.getPixels();
+		if (!array.getName().equals(name) || pixels.length != count)
+			throw new ExceptionSemantic("Can't record LED array " + array.getName() + " to " + path + ".");
+		frame.clear();
+		for (int pixel : pixels)
+			frame.put((byte) LedArray.red(pixel)).put((byte) LedArray.green(pixel)).put((byte) LedArray.blue(pixel));
+		try {
+			send();
+		} catch (IOException e) {
+			throw new ExceptionSemantic("Can't record LEDs to " + path + ": " + e.getMessage());
+		}
+	}
+
+	/** Finish recording. */
+	public synchronized void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	// Write what is in the frame buffer.
+	private void send() throws IOException {
+		frame.flip();
+		while (frame.hasRemaining())
+			channel.write(frame);
+	}
+}
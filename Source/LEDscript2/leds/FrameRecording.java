@@ -0,0 +1,92 @@
+package LEDscript2.leds;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import LEDscript2.interpreter.ExceptionSemantic;
+
+/** Loads the frames of a recording made by FrameRecorder.
+ *
+ * The file is mapped into memory rather than read, so loading a frame is a copy out of
+ * the page cache, and any frame can be loaded as quickly as the next.  A frame cut short
+ * at the end, as when recording was stopped part way through one, is left out.
+ */
+public class FrameRecording {
+
+	private final String name;
+	private final int count;
+	private final int frameCount;
+	private final int start;
+	private final MappedByteBuffer frames;
+
+	/** Ctor, given the path of a recording. */
+	public FrameRecording(String path) {
+		try {
+			RandomAccessFile file = new RandomAccessFile(path, "r");
+			try {
+				FileChannel channel = file.getChannel();
+				if (channel.size() > Integer.MAX_VALUE)
+					throw new ExceptionSemantic("Recording " + path + " is too large to load.");
+				frames = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			} finally {
+				// A mapping outlives the file it was made from
+				file.close();
+			}
+		} catch (IOException e) {
+			throw new ExceptionSemantic("Can't load LEDs from " + path + ": " + e.getMessage());
+		}
+		try {
+			byte[] magic = new byte[FrameRecorder.magic.length];
+			frames.get(magic);
+			if (!Arrays.equals(magic, FrameRecorder.magic) || frames.get() != FrameRecorder.version
+					|| frames.get() != FrameRecorder.rgb)
+				throw new ExceptionSemantic(path + " is not an LED recording.");
+			byte[] nameBytes = new byte[frames.getShort() & 0xFFFF];
+			frames.get(nameBytes);
+			name = new String(nameBytes, FrameRecorder.utf8);
+			count = frames.getInt();
+		} catch (BufferUnderflowException e) {
+			throw new ExceptionSemantic(path + " is not an LED recording.");
+		}
+		if (count < 0)
+			throw new ExceptionSemantic(path + " is not an LED recording.");
+		start = frames.position();
+		frameCount = (count == 0) ? 0 : (frames.capacity() - start) / (count * 3);
+	}
+
+	/** Get the name of the array recorded. */
+	public String getName() {
+		return name;
+	}
+
+	/** Get the number of LEDs in the array recorded. */
+	public int getCount() {
+		return count;
+	}
+
+	/** Get the number of frames recorded. */
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	/** Get a new array the size of the one recorded, all off. */
+	public LedArray newArray() {
+		return new LedArray(name, count);
+	}
+
+	/** Load a frame, counting from 0, into an array the size of the one recorded.  LEDs
+	 * that change are marked dirty, as an update would mark them. */
+	public void read(int frame, LedArray array) {
+		if (frame < 0 || frame >= frameCount)
+			throw new ExceptionSemantic("Frame " + frame + " is not in the recording of " + name + ".");
+		if (array.getCount() != count)
+			throw new ExceptionSemantic("LED array " + array.getName() + " is not the size of " + name + ".");
+		int at = start + frame * count * 3;
+		for (int led = 1; led <= count; led++, at += 3)
+			array.set(led, frames.get(at) & 0xFF, frames.get(at + 1) & 0xFF, frames.get(at + 2) & 0xFF);
+	}
+}
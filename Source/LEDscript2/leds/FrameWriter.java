@@ -0,0 +1,111 @@
+package LEDscript2.leds;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/** Buffered text output for WRITE and INFO, and the sink that prints frames to the console.
+ *
+ * Each frame is formatted into one StringBuilder and encoded onto the end of a byte
+ * buffer, both kept from frame to frame.  Flushing is a single write of the whole
+ * buffer to the underlying stream, rather than a println for every row.  When to flush
+ * is up to a policy: after every frame, so each is seen as soon as it's printed, or in
+ * batches once the buffer fills, which is quicker when output goes to a file or a pipe.
+ * Either way the owner flushes before it waits and when it finishes.
+ *
+ * Frames may be printed from more than one thread, so each is printed whole.
+ */
+public class FrameWriter implements LedSink {
+
+	/** When to flush. */
+	public enum Flush {
+		/** After every frame */
+		FRAME,
+		/** Once the buffer holds batchSize bytes */
+		BATCH
+	}
+
+	/** The bytes BATCH buffers before flushing. */
+	public static final int batchSize = 1 << 16;
+
+	private final OutputStream out;
+	private final Flush policy;
+	private final boolean changesOnly;
+	private final StringBuilder text = new StringBuilder();
+	private final CharsetEncoder encoder;
+	private ByteBuffer bytes = ByteBuffer.allocate(batchSize);
+
+	/** Ctor, given where to write and when to flush.  Text is encoded as the platform encodes it. */
+	public FrameWriter(OutputStream out, Flush policy) {
+		this(out, policy, false);
+	}
+
+	/** Ctor, given where to write, when to flush, and whether WRITE prints only the LEDs
+	 * changed since an array was last written. */
+	public FrameWriter(OutputStream out, Flush policy, boolean changesOnly) {
+		this.out = out;
+		this.policy = policy;
+		this.changesOnly = changesOnly;
+		encoder = Charset.defaultCharset().newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/** Print the "R-G-B" values of an array for WRITE, or of those LEDs changed since it was last written. */
+	public synchronized void write(LedArray array) {
+		if (changesOnly)
+			LedPrinter.writeChanges(array, text);
+		else
+			LedPrinter.write(array, text);
+		finishFrame();
+	}
+
+	/** Print the colour names of an array for INFO. */
+	public synchronized void info(LedArray array, ColourClassifier classifier) {
+		LedPrinter.info(array, classifier, text);
+		finishFrame();
+	}
+
+	/** Write out whatever is buffered. */
+	public synchronized void flush() {
+		if (bytes.position() == 0)
+			return;
+		try {
+			out.write(bytes.array(), 0, bytes.position());
+			out.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		bytes.clear();
+	}
+
+	/** Write out whatever is buffered.  The stream is left open, as it may be shared. */
+	public void close() {
+		flush();
+	}
+
+	// Encode the frame just formatted, and flush if the policy says to.
+	private void finishFrame() {
+		CharBuffer chars = CharBuffer.wrap(text);
+		encoder.reset();
+		while (encoder.encode(chars, bytes, true) == CoderResult.OVERFLOW)
+			grow();
+		while (encoder.flush(bytes) == CoderResult.OVERFLOW)
+			grow();
+		text.setLength(0);
+		if (policy == Flush.FRAME || bytes.position() >= batchSize)
+			flush();
+	}
+
+	// Double the byte buffer, keeping what it holds.
+	private void grow() {
+		ByteBuffer bigger = ByteBuffer.allocate(bytes.capacity() * 2);
+		bytes.flip();
+		bigger.put(bytes);
+		bytes = bigger;
+	}
+}
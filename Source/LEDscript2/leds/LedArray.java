@@ -0,0 +1,171 @@
+package LEDscript2.leds;
+
+import java.util.Arrays;
+
+/** Frame buffer for one named array of LEDs.
+ *
+ * Every LED is packed into a single int as RGB888 in the low 24 bits.  The top
+ * byte is set once the LED has been written by an update, so that an LED which has
+ * never been lit can be told apart from one that was set to 0-0-0.
+ *
+ * LEDs are numbered from 1, as they are in LEDscript.  Text forms of an LED (its
+ * "R-G-B" string or its colour name) are only built when asked for.
+ *
+ * Each LED has a dirty bit, set when an update changes it and cleared once the array
+ * has been written, so that a WRITE can send only the LEDs changed since the last.
+ * A new array is all dirty, as none of it has been shown.
+ */
+public class LedArray {
+
+	/** Marks an LED that has been written at least once. */
+	public static final int LIT = 0xFF000000;
+
+	private final String name;
+	private final int[] pixels;
+	private final long[] dirty;
+
+	/** Ctor.  All LEDs start off, and dirty. */
+	public LedArray(String name, int count) {
+		this.name = name;
+		pixels = new int[count];
+		dirty = new long[(count + 63) >>> 6];
+		markDirty();
+	}
+
+	/** Get the name of this array. */
+	public String getName() {
+		return name;
+	}
+
+	/** Get the number of LEDs in this array. */
+	public int getCount() {
+		return pixels.length;
+	}
+
+	/** True if the given LED number exists in this array. */
+	public boolean contains(long led) {
+		return led >= 1 && led <= pixels.length;
+	}
+
+	/** Set the colour of an LED.  Channels are clamped to 0-255. */
+	public void set(int led, int red, int green, int blue) {
+		int pixel = pack(red, green, blue);
+		int index = led - 1;
+		if (pixels[index] != pixel) {
+			pixels[index] = pixel;
+			dirty[index >>> 6] |= 1L << index;
+		}
+	}
+
+	/** Get the packed colour of an LED. */
+	public int get(int led) {
+		return pixels[led - 1];
+	}
+
+	/** Get the packed pixels of this array.  The array is live, not a copy. */
+	public int[] getPixels() {
+		return pixels;
+	}
+
+	/** Copy the pixels and dirty bits of an array the same size as this one. */
+	public void copyFrom(LedArray array) {
+		System.arraycopy(array.pixels, 0, pixels, 0, pixels.length);
+		System.arraycopy(array.dirty, 0, dirty, 0, dirty.length);
+	}
+
+	/** Mark every LED dirty. */
+	public void markDirty() {
+		Arrays.fill(dirty, -1L);
+		if ((pixels.length & 63) != 0)
+			dirty[dirty.length - 1] = (1L << pixels.length) - 1;
+	}
+
+	/** Also mark dirty the LEDs that are dirty in an array the same size as this one. */
+	public void markDirty(LedArray array) {
+		for (int word = 0; word < dirty.length; word++)
+			dirty[word] |= array.dirty[word];
+	}
+
+	/** Mark every LED clean, once the array has been written. */
+	public void markClean() {
+		Arrays.fill(dirty, 0L);
+	}
+
+	/** True if the given LED has changed since the array was last written. */
+	public boolean isDirty(int led) {
+		int index = led - 1;
+		return (dirty[index >>> 6] & (1L << index)) != 0;
+	}
+
+	/** Get the first dirty LED from a given LED on, or 0 if there are none. */
+	public int nextDirty(int led) {
+		int index = led - 1;
+		if (index >= pixels.length)
+			return 0;
+		int word = index >>> 6;
+		long bits = dirty[word] & (-1L << index);
+		while (bits == 0) {
+			if (++word == dirty.length)
+				return 0;
+			bits = dirty[word];
+		}
+		return (word << 6) + Long.numberOfTrailingZeros(bits) + 1;
+	}
+
+	/** Get the first clean LED from a given LED on, or one past the last LED if there are none. */
+	public int nextClean(int led) {
+		int index = led - 1;
+		if (index >= pixels.length)
+			return pixels.length + 1;
+		int word = index >>> 6;
+		long bits = ~dirty[word] & (-1L << index);
+		while (bits == 0) {
+			if (++word == dirty.length)
+				return pixels.length + 1;
+			bits = ~dirty[word];
+		}
+		return Math.min(pixels.length, (word << 6) + Long.numberOfTrailingZeros(bits)) + 1;
+	}
+
+	/** Get the "R-G-B" text of an LED. */
+	public String rgbString(int led) {
+		int pixel = pixels[led - 1];
+		return red(pixel) + "-" + green(pixel) + "-" + blue(pixel);
+	}
+
+	/** Get the colour name of an LED, as named by the given classifier. */
+	public String colourName(int led, ColourClassifier classifier) {
+		int pixel = pixels[led - 1];
+		if ((pixel & LIT) == 0)
+			return "OFF";
+		return classifier.classify(pixel);
+	}
+
+	/** Pack a colour, clamping each channel to 0-255. */
+	public static int pack(int red, int green, int blue) {
+		return LIT | (clamp(red) << 16) | (clamp(green) << 8) | clamp(blue);
+	}
+
+	/** Get the red channel of a packed colour. */
+	public static int red(int pixel) {
+		return (pixel >> 16) & 0xFF;
+	}
+
+	/** Get the green channel of a packed colour. */
+	public static int green(int pixel) {
+		return (pixel >> 8) & 0xFF;
+	}
+
+	/** Get the blue channel of a packed colour. */
+	public static int blue(int pixel) {
+		return pixel & 0xFF;
+	}
+
+	private static int clamp(int channel) {
+		if (channel < 0)
+			return 0;
+		if (channel > 255)
+			return 255;
+		return channel;
+	}
+}
@@ -0,0 +1,89 @@
+package LEDscript2.leds;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+
+/** Prints LED arrays as text, three LEDs to a row.
+ *
+ * For the purpose of this assignment a mock-up of the array is printed to the screen.
+ * To control real LEDs the output will need to send the RGB values to the LEDs instead.
+ */
+public class LedPrinter {
+
+	private static final String divider = "||-------------------------------------||";
+	private static final String newline = System.getProperty("line.separator");
+
+	/** Print the "R-G-B" values of an array for WRITE. */
+	public static void write(LedArray array, PrintStream out) {
+		StringBuilder text = new StringBuilder();
+		write(array, text);
+		out.print(text);
+	}
+
+	/** Print the colour names of an array for INFO. */
+	public static void info(LedArray array, ColourClassifier classifier, PrintStream out) {
+		StringBuilder text = new StringBuilder();
+		info(array, classifier, text);
+		out.print(text);
+	}
+
+	/** Append the "R-G-B" values of an array for WRITE to some text. */
+	public static void write(LedArray array, StringBuilder text) {
+		text.append(newline).append(divider).append(newline);
+		for (int counter = 1; counter <= array.getCount(); counter += 3) {
+			for (int led = counter; led < counter + 3 && led <= array.getCount(); led++) {
+				int pixel = array.get(led);
+				text.append("||").append(LedArray.red(pixel)).append('-').append(LedArray.green(pixel)).append('-')
+						.append(LedArray.blue(pixel));
+			}
+			text.append(newline).append(divider).append(newline);
+		}
+	}
+
+	/** Append the "R-G-B" values of the LEDs of an array changed since it was last written,
+	 * for WRITE.  Each run of changed LEDs is a row, "name first-last||R-G-B||R-G-B...".
+	 * An array with no changes appends nothing. */
+	public static void writeChanges(LedArray array, StringBuilder text) {
+		for (int first = array.nextDirty(1); first != 0; first = array.nextDirty(first)) {
+			int end = array.nextClean(first);
+			text.append(array.getName()).append(' ').append(first);
+			if (end - 1 > first)
+				text.append('-').append(end - 1);
+			for (int led = first; led < end; led++) {
+				int pixel = array.get(led);
+				text.append("||").append(LedArray.red(pixel)).append('-').append(LedArray.green(pixel)).append('-')
+						.append(LedArray.blue(pixel));
+			}
+			text.append(newline);
+			first = end;
+		}
+	}
+
+	/** Append the colour names of an array for INFO to some text. */
+	public static void info(LedArray array, ColourClassifier classifier, StringBuilder text) {
+		text.append(newline).append(divider).append(newline);
+		for (int counter = 1; counter <= array.getCount(); counter += 3) {
+			for (int led = counter; led < counter + 3 && led <= array.getCount(); led++)
+				text.append("||").append(array.colourName(led, classifier));
+			text.append(newline).append(divider).append(newline);
+		}
+		text.append(newline);
+	}
+
+	/** Save the "R-G-B" values of an array to <name>.txt for SAVE. */
+	public static void save(LedArray array) {
+		try {
+			PrintWriter out = new PrintWriter(array.getName() + ".txt");
+			for (int counter = 1; counter <= array.getCount(); counter += 3) {
+				String row = "";
+				for (int led = counter; led < counter + 3 && led <= array.getCount(); led++)
+					row += "|" + array.rgbString(led);
+				out.println(row);
+			}
+			out.close();
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		}
+	}
+}
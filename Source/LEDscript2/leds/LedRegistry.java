@@ -0,0 +1,35 @@
+package LEDscript2.leds;
+
+import java.util.HashMap;
+
+import LEDscript2.interpreter.ExceptionSemantic;
+
+/** The LED arrays defined by a running program, keyed by name.
+ *
+ * There is no limit on how many arrays may be defined or on how many LEDs each holds.
+ */
+public class LedRegistry {
+
+	private HashMap<String, LedArray> arrays = new HashMap<String, LedArray>();
+
+	/** Define a new array of LEDs, all off.  Throw ExceptionSemantic if the name is taken. */
+	public LedArray define(String name, int count) {
+		if (arrays.containsKey(name))
+			throw new ExceptionSemantic("LED array " + name + " already exists.");
+		if (count < 0)
+			throw new ExceptionSemantic("LED array " + name + " cannot have " + count + " LEDs.");
+		LedArray array = new LedArray(name, count);
+		arrays.put(name, array);
+		return array;
+	}
+
+	/** Find an array by name.  Return null if it doesn't exist. */
+	public LedArray find(String name) {
+		return arrays.get(name);
+	}
+
+	/** Get the number of arrays defined. */
+	public int size() {
+		return arrays.size();
+	}
+}
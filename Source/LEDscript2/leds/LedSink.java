@@ -0,0 +1,24 @@
+package LEDscript2.leds;
+
+/** Where the frames a program WRITEs go.
+ *
+ * A sink is given a whole array at a time, and can read its packed pixels straight
+ * from LedArray.getPixels().  Each sink sends a frame on in as few writes as it can, so
+ * that real controllers can be driven at high frame rates.  A sink may be written from
+ * a render thread while a program flushes it, so implementations are thread safe.
+ * A sink that can't send a frame throws ExceptionSemantic, which stops the program.
+ *
+ * An array's dirty bits say which LEDs have changed since it was last written, so a
+ * sink may send only those.  Whoever writes the array marks it clean afterwards.
+ */
+public interface LedSink {
+
+	/** Send a frame: the colours of an array as they are now. */
+	void write(LedArray array);
+
+	/** Send on anything buffered. */
+	void flush();
+
+	/** Send on anything buffered and let go of whatever the sink writes to. */
+	void close();
+}
@@ -0,0 +1,97 @@
+package LEDscript2.leds;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Vector;
+
+import LEDscript2.interpreter.ExceptionSemantic;
+
+/** Names colours after the nearest entry in a palette.
+ *
+ * The RGB cube is divided into 32x32x32 buckets, and the nearest palette entry to
+ * the centre of each bucket is found when the palette is loaded.  Classifying is
+ * then a single table lookup.
+ */
+public class PaletteColours implements ColourClassifier {
+
+	private static final int bucketBits = 5;
+	private static final int buckets = 1 << bucketBits;
+	private static final int shift = 8 - bucketBits;
+
+	private final String[] names;
+	private final short[] nearest = new short[buckets * buckets * buckets];
+
+	/** Ctor.  Build the lookup table for the given palette. */
+	public PaletteColours(String[] names, int[] colours) {
+		if (names.length == 0 || names.length != colours.length)
+			throw new ExceptionSemantic("A palette needs a colour for each of at least one name.");
+		if (names.length > Short.MAX_VALUE)
+			throw new ExceptionSemantic("A palette cannot have more than " + Short.MAX_VALUE + " colours.");
+		this.names = names.clone();
+		int half = 1 << (shift - 1);
+		for (int red = 0; red < buckets; red++)
+			for (int green = 0; green < buckets; green++)
+				for (int blue = 0; blue < buckets; blue++) {
+					int r = (red << shift) + half;
+					int g = (green << shift) + half;
+					int b = (blue << shift) + half;
+					int best = 0;
+					int bestDistance = Integer.MAX_VALUE;
+					for (int i = 0; i < colours.length; i++) {
+						int dr = r - LedArray.red(colours[i]);
+						int dg = g - LedArray.green(colours[i]);
+						int db = b - LedArray.blue(colours[i]);
+						int distance = dr * dr + dg * dg + db * db;
+						if (distance < bestDistance) {
+							best = i;
+							bestDistance = distance;
+						}
+					}
+					nearest[(red << (2 * bucketBits)) | (green << bucketBits) | blue] = (short) best;
+				}
+	}
+
+	/** Load a palette from a file.
+	 *
+	 * Each line holds a colour name followed by its red, green and blue values, e.g.
+	 * "AMBER 255 191 0".  Blank lines and lines starting with # are ignored.
+	 */
+	public static PaletteColours load(String fileName) throws IOException {
+		Vector<String> names = new Vector<String>();
+		Vector<Integer> colours = new Vector<Integer>();
+		BufferedReader in = new BufferedReader(new FileReader(fileName));
+		try {
+			String line;
+			int lineNumber = 0;
+			while ((line = in.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#"))
+					continue;
+				String[] fields = line.split("\\s+");
+				if (fields.length != 4)
+					throw new ExceptionSemantic("Palette " + fileName + " line " + lineNumber + " should be: name red green blue");
+				try {
+					colours.add(LedArray.pack(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]), Integer.parseInt(fields[3])));
+				} catch (NumberFormatException e) {
+					throw new ExceptionSemantic("Palette " + fileName + " line " + lineNumber + " has a bad colour value.");
+				}
+				names.add(fields[0]);
+			}
+		} finally {
+			in.close();
+		}
+		int[] packed = new int[colours.size()];
+		for (int i = 0; i < packed.length; i++)
+			packed[i] = colours.get(i);
+		return new PaletteColours(names.toArray(new String[names.size()]), packed);
+	}
+
+	/** Get the colour name of a packed RGB888 colour. */
+	public String classify(int pixel) {
+		return names[nearest[((pixel >> (16 + shift)) & (buckets - 1)) << (2 * bucketBits)
+				| ((pixel >> (8 + shift)) & (buckets - 1)) << bucketBits
+				| ((pixel >> shift) & (buckets - 1))]];
+	}
+}
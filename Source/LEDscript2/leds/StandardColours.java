@@ -0,0 +1,81 @@
+package LEDscript2.leds;
+
+/** The standard LEDscript colour names.
+ *
+ * Every rule that names a colour compares a channel against one of a handful of
+ * thresholds, so each channel falls into one of eight bands, and every RGB colour in
+ * the same three bands has the same name.  The names of all 8x8x8 band combinations
+ * are worked out once, and classifying is three band lookups and a name lookup.
+ */
+public class StandardColours implements ColourClassifier {
+
+	// The first value of each band.  The rules only ever test for values below or
+	// above these boundaries.
+	private static final int[] bandStart = {0, 99, 100, 101, 156, 181, 190, 225};
+
+	/** Shared instance.  The tables never change once built. */
+	public static final StandardColours INSTANCE = new StandardColours();
+
+	private final byte[] band = new byte[256];
+	private final String[] names = new String[bandStart.length * bandStart.length * bandStart.length];
+
+	/** Ctor.  Build the band and name tables. */
+	private StandardColours() {
+		int b = 0;
+		for (int channel = 0; channel < 256; channel++) {
+			if (b + 1 < bandStart.length && channel == bandStart[b + 1])
+				b++;
+			band[channel] = (byte) b;
+		}
+		for (int red = 0; red < bandStart.length; red++)
+			for (int green = 0; green < bandStart.length; green++)
+				for (int blue = 0; blue < bandStart.length; blue++)
+					names[index(red, green, blue)] = rule(bandStart[red], bandStart[green], bandStart[blue]);
+	}
+
+	private static int index(int redBand, int greenBand, int blueBand) {
+		return (redBand * bandStart.length + greenBand) * bandStart.length + blueBand;
+	}
+
+	/** Get the colour name of a packed RGB888 colour. */
+	public String classify(int pixel) {
+		return names[index(band[LedArray.red(pixel)], band[LedArray.green(pixel)], band[LedArray.blue(pixel)])];
+	}
+
+	// The naming rules.  These are only run while building the name table.
+	private static String rule(int Red, int Green, int Blue) {
+		if ((Red > 180) & (Green > 180) & (Blue > 180))
+			return "WHITE";
+		if ((Red < 100) & (Green < 100) & (Blue < 100))
+			return "BLACK";
+		if ((Red > 180) & (Green < 99) & (Blue < 99))
+			return "RED";
+		if ((Red < 100) & (Green > 180) & (Blue < 100))
+			return "LIME";
+		if ((Red < 100) & (Green < 100) & (Blue > 180))
+			return "BLUE";
+		if ((Red > 180) & (Green > 180) & (Blue < 100))
+			return "YELLOW";
+		if ((Red < 100) & (Green > 180) & (Blue > 180))
+			return "AQUA";
+		if ((Red > 180) & (Green < 100) & (Blue > 180))
+			return "MAGENTA";
+		if ((Red < 225) & (Green < 225) & (Blue < 225) & (Red > 155) & (Green > 155) & (Blue > 155))
+			return "SILVER";
+		if ((Red < 190) & (Green < 190) & (Blue < 190) & (Red > 100) & (Green > 100) & (Blue > 100))
+			return "GRAY";
+		if ((Red < 190) & (Green < 100) & (Blue < 100) & (Red > 100))
+			return "MAROON";
+		if ((Red < 190) & (Green < 190) & (Blue < 99) & (Red > 100) & (Green > 100))
+			return "OLIVE";
+		if ((Green < 190) & (Red < 99) & (Blue < 99) & (Green > 100))
+			return "GREEN";
+		if ((Blue < 190) & (Green < 99) & (Red < 99) & (Blue > 100))
+			return "NAVY";
+		if ((Red < 190) & (Blue < 190) & (Green < 99) & (Red > 100) & (Blue > 100))
+			return "PURPLE";
+		if ((Blue < 190) & (Green < 190) & (Red < 99) & (Blue > 100) & (Green > 100))
+			return "TEAL";
+		return "UNKNOWN";
+	}
+}
@@ -4,6 +4,24 @@ package LEDscript2.parser;
 public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/*@bgen(jjtree)*/
   protected JJTSiliState jjtree = new JJTSiliState();
 
+/*@egen*/
+  /* The text of each name and literal, kept once however often it is
+     used.  A generated show repeats the same few names and numbers
+     thousands of times, and each node would otherwise hold its own copy.
+     It is here rather than in JJTSiliState, which JJTree writes afresh. */
+  private java.util.HashMap<String, String> images = new java.util.HashMap<String, String>();
+
+  /* Returns the text of a token, or the same text already in the tree, so
+     that a tree holds each once. */
+  private String share(String image) {
+    String shared = images.get(image);
+    if (shared == null) {
+      images.put(image, image);
+      shared = image;
+    }
+    return shared;
+  }
+
 /***********************************************
  *          THE GRAMMAR STARTS HERE            *
  ***********************************************/
@@ -1152,7 +1170,18 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
   jjtree.openNodeScope(jjtn000);
     try {
       jj_consume_token(DELAY);
-      integer();
+      switch ((jj_ntk==-1)?jj_ntk():jj_ntk) {
+      case INTEGER_LITERAL:
+        integer();
+        break;
+      case FLOATING_POINT_LITERAL:
+        rational();
+        break;
+      default:
+        jj_la1[18] = jj_gen;
+        jj_consume_token(-1);
+        throw new ParseException();
+      }
       jj_consume_token(SEMICOLON);
     } catch (Throwable jjte000) {
     if (jjtc000) {
@@ -1353,7 +1382,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
       jjtn000.ifHasElse = true;
         break;
       default:
-        jj_la1[18] = jj_gen;
+        jj_la1[19] = jj_gen;
         ;
       }
     } catch (Throwable jjte000) {
@@ -1464,7 +1493,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
         expression();
         break;
       default:
-        jj_la1[19] = jj_gen;
+        jj_la1[20] = jj_gen;
         ;
       }
       label_10:
@@ -1474,7 +1503,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
           ;
           break;
         default:
-          jj_la1[20] = jj_gen;
+          jj_la1[21] = jj_gen;
           break label_10;
         }
         jj_consume_token(COMMA);
@@ -1518,7 +1547,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
         ;
         break;
       default:
-        jj_la1[21] = jj_gen;
+        jj_la1[22] = jj_gen;
         break label_11;
       }
       jj_consume_token(OR);
@@ -1558,7 +1587,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
         ;
         break;
       default:
-        jj_la1[22] = jj_gen;
+        jj_la1[23] = jj_gen;
         break label_12;
       }
       jj_consume_token(AND);
@@ -1762,13 +1791,13 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
         }
         break;
       default:
-        jj_la1[23] = jj_gen;
+        jj_la1[24] = jj_gen;
         jj_consume_token(-1);
         throw new ParseException();
       }
       break;
     default:
-      jj_la1[24] = jj_gen;
+      jj_la1[25] = jj_gen;
       ;
     }
   }
@@ -1783,7 +1812,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
         ;
         break;
       default:
-        jj_la1[25] = jj_gen;
+        jj_la1[26] = jj_gen;
         break label_13;
       }
       switch ((jj_ntk==-1)?jj_ntk():jj_ntk) {
@@ -1842,7 +1871,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
         }
         break;
       default:
-        jj_la1[26] = jj_gen;
+        jj_la1[27] = jj_gen;
         jj_consume_token(-1);
         throw new ParseException();
       }
@@ -1859,7 +1888,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
         ;
         break;
       default:
-        jj_la1[27] = jj_gen;
+        jj_la1[28] = jj_gen;
         break label_14;
       }
       switch ((jj_ntk==-1)?jj_ntk():jj_ntk) {
@@ -1918,7 +1947,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
         }
         break;
       default:
-        jj_la1[28] = jj_gen;
+        jj_la1[29] = jj_gen;
         jj_consume_token(-1);
         throw new ParseException();
       }
@@ -2018,7 +2047,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
       primary_expression();
       break;
     default:
-      jj_la1[29] = jj_gen;
+      jj_la1[30] = jj_gen;
       jj_consume_token(-1);
       throw new ParseException();
     }
@@ -2034,7 +2063,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
       literal();
       break;
     default:
-      jj_la1[30] = jj_gen;
+      jj_la1[31] = jj_gen;
       if (jj_2_2(2)) {
         fn_invoke();
       } else {
@@ -2048,7 +2077,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
           jj_consume_token(RPAREN);
           break;
         default:
-          jj_la1[31] = jj_gen;
+          jj_la1[32] = jj_gen;
           jj_consume_token(-1);
           throw new ParseException();
         }
@@ -2101,7 +2130,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
       bool();
       break;
     default:
-      jj_la1[32] = jj_gen;
+      jj_la1[33] = jj_gen;
       jj_consume_token(-1);
       throw new ParseException();
     }
@@ -2116,7 +2145,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
       t = jj_consume_token(IDENTIFIER);
     jjtree.closeNodeScope(jjtn000, true);
     jjtc000 = false;
-    jjtn000.tokenValue = t.image;
+    jjtn000.tokenValue = share(t.image);
     } finally {
     if (jjtc000) {
       jjtree.closeNodeScope(jjtn000, true);
@@ -2133,7 +2162,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
       t = jj_consume_token(IDENTIFIER);
     jjtree.closeNodeScope(jjtn000, true);
     jjtc000 = false;
-    jjtn000.tokenValue = t.image;
+    jjtn000.tokenValue = share(t.image);
     } finally {
     if (jjtc000) {
       jjtree.closeNodeScope(jjtn000, true);
@@ -2150,7 +2179,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
       t = jj_consume_token(STRING_LITERAL);
     jjtree.closeNodeScope(jjtn000, true);
     jjtc000 = false;
-    jjtn000.tokenValue = t.image;
+    jjtn000.tokenValue = share(t.image);
     } finally {
     if (jjtc000) {
       jjtree.closeNodeScope(jjtn000, true);
@@ -2167,7 +2196,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
       t = jj_consume_token(INTEGER_LITERAL);
     jjtree.closeNodeScope(jjtn000, true);
     jjtc000 = false;
-    jjtn000.tokenValue = t.image;
+    jjtn000.tokenValue = share(t.image);
     } finally {
     if (jjtc000) {
       jjtree.closeNodeScope(jjtn000, true);
@@ -2184,7 +2213,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
       t = jj_consume_token(FLOATING_POINT_LITERAL);
     jjtree.closeNodeScope(jjtn000, true);
     jjtc000 = false;
-    jjtn000.tokenValue = t.image;
+    jjtn000.tokenValue = share(t.image);
     } finally {
     if (jjtc000) {
       jjtree.closeNodeScope(jjtn000, true);
@@ -2219,7 +2248,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
       }
       break;
     default:
-      jj_la1[33] = jj_gen;
+      jj_la1[34] = jj_gen;
       jj_consume_token(-1);
       throw new ParseException();
     }
@@ -2307,7 +2336,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
   private Token jj_scanpos, jj_lastpos;
   private int jj_la;
   private int jj_gen;
-  final private int[] jj_la1 = new int[34];
+  final private int[] jj_la1 = new int[35];
   static private int[] jj_la1_0;
   static private int[] jj_la1_1;
   static private int[] jj_la1_2;
@@ -2317,13 +2346,13 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
       jj_la1_init_2();
    }
    private static void jj_la1_init_0() {
-      jj_la1_0 = new int[] {0xfe283200,0xfc083200,0xfe283200,0x0,0x0,0xfe283200,0x100000,0x2200000,0x0,0x70000,0x0,0x70000,0x0,0x70000,0x0,0x70000,0x0,0x70000,0x400,0x70000,0x0,0x4000,0x8000,0x0,0x0,0x0,0x0,0x0,0x0,0x70000,0x60000,0x0,0x60000,0x60000,};
+      jj_la1_0 = new int[] {0xfe283200,0xfc083200,0xfe283200,0x0,0x0,0xfe283200,0x100000,0x2200000,0x0,0x70000,0x0,0x70000,0x0,0x70000,0x0,0x70000,0x0,0x70000,0x0,0x400,0x70000,0x0,0x4000,0x8000,0x0,0x0,0x0,0x0,0x0,0x0,0x70000,0x60000,0x0,0x60000,0x60000,};
    }
    private static void jj_la1_init_1() {
-      jj_la1_1 = new int[] {0x4203f,0x4203f,0x4203f,0x800000,0x2000,0x4203f,0x0,0x2000,0x400000,0x13440,0x400000,0x13440,0x400000,0x13440,0x400000,0x13440,0x400000,0x13440,0x0,0x13440,0x800000,0x0,0x0,0x80000000,0x80000000,0x0,0x0,0x0,0x0,0x13440,0x1440,0x12000,0x1440,0x0,};
+      jj_la1_1 = new int[] {0x4203f,0x4203f,0x4203f,0x800000,0x2000,0x4203f,0x0,0x2000,0x400000,0x13440,0x400000,0x13440,0x400000,0x13440,0x400000,0x13440,0x400000,0x13440,0x440,0x0,0x13440,0x800000,0x0,0x0,0x80000000,0x80000000,0x0,0x0,0x0,0x0,0x13440,0x1440,0x12000,0x1440,0x0,};
    }
    private static void jj_la1_init_2() {
-      jj_la1_2 = new int[] {0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x180,0x0,0x180,0x0,0x180,0x0,0x180,0x0,0x180,0x0,0x180,0x0,0x0,0x0,0x100f,0x100f,0x180,0x180,0x600,0x600,0x180,0x0,0x0,0x0,0x0,};
+      jj_la1_2 = new int[] {0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x0,0x180,0x0,0x180,0x0,0x180,0x0,0x180,0x0,0x180,0x0,0x0,0x180,0x0,0x0,0x0,0x100f,0x100f,0x180,0x180,0x600,0x600,0x180,0x0,0x0,0x0,0x0,};
    }
   final private JJCalls[] jj_2_rtns = new JJCalls[2];
   private boolean jj_rescan = false;
@@ -2340,7 +2369,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
     token = new Token();
     jj_ntk = -1;
     jj_gen = 0;
-    for (int i = 0; i < 34; i++) jj_la1[i] = -1;
+    for (int i = 0; i < 35; i++) jj_la1[i] = -1;
     for (int i = 0; i < jj_2_rtns.length; i++) jj_2_rtns[i] = new JJCalls();
   }
 
@@ -2356,7 +2385,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
     jj_ntk = -1;
     jjtree.reset();
     jj_gen = 0;
-    for (int i = 0; i < 34; i++) jj_la1[i] = -1;
+    for (int i = 0; i < 35; i++) jj_la1[i] = -1;
     for (int i = 0; i < jj_2_rtns.length; i++) jj_2_rtns[i] = new JJCalls();
   }
 
@@ -2367,7 +2396,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
     token = new Token();
     jj_ntk = -1;
     jj_gen = 0;
-    for (int i = 0; i < 34; i++) jj_la1[i] = -1;
+    for (int i = 0; i < 35; i++) jj_la1[i] = -1;
     for (int i = 0; i < jj_2_rtns.length; i++) jj_2_rtns[i] = new JJCalls();
   }
 
@@ -2379,7 +2408,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
     jj_ntk = -1;
     jjtree.reset();
     jj_gen = 0;
-    for (int i = 0; i < 34; i++) jj_la1[i] = -1;
+    for (int i = 0; i < 35; i++) jj_la1[i] = -1;
     for (int i = 0; i < jj_2_rtns.length; i++) jj_2_rtns[i] = new JJCalls();
   }
 
@@ -2389,7 +2418,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
     token = new Token();
     jj_ntk = -1;
     jj_gen = 0;
-    for (int i = 0; i < 34; i++) jj_la1[i] = -1;
+    for (int i = 0; i < 35; i++) jj_la1[i] = -1;
     for (int i = 0; i < jj_2_rtns.length; i++) jj_2_rtns[i] = new JJCalls();
   }
 
@@ -2400,7 +2429,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
     jj_ntk = -1;
     jjtree.reset();
     jj_gen = 0;
-    for (int i = 0; i < 34; i++) jj_la1[i] = -1;
+    for (int i = 0; i < 35; i++) jj_la1[i] = -1;
     for (int i = 0; i < jj_2_rtns.length; i++) jj_2_rtns[i] = new JJCalls();
   }
 
@@ -2517,7 +2546,7 @@ public class Sili/*@bgen(jjtree)*/implements SiliTreeConstants, SiliConstants {/
       la1tokens[jj_kind] = true;
       jj_kind = -1;
     }
-    for (int i = 0; i < 34; i++) {
+    for (int i = 0; i < 35; i++) {
       if (jj_la1[i] == jj_gen) {
         for (int j = 0; j < 32; j++) {
           if ((jj_la1_0[i] & (1<<j)) != 0) {
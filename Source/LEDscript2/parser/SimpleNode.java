@@ -5,11 +5,13 @@ package LEDscript2.parser;
 public
 class SimpleNode extends LEDscript2.interpreter.BaseASTNode implements Node {
 
+  /* A long script has millions of nodes, so they hold no more than they
+     must.  Nodes don't keep the parser, which is never used from them, or
+     a value, as what Sili sets on a node is kept in BaseASTNode. */
   protected Node parent;
   protected Node[] children;
+  protected int numChildren;
   protected int id;
-  protected Object value;
-  protected Sili parser;
 
   public SimpleNode(int i) {
     id = i;
@@ -17,7 +19,6 @@ class SimpleNode extends LEDscript2.interpreter.BaseASTNode implements Node {
 
   public SimpleNode(Sili p, int i) {
     this(i);
-    parser = p;
   }
 
   public void jjtOpen() {
@@ -29,15 +30,21 @@ class SimpleNode extends LEDscript2.interpreter.BaseASTNode implements Node {
   public void jjtSetParent(Node n) { parent = n; }
   public Node jjtGetParent() { return parent; }
 
+  /* The parser adds the last child first, which sizes the array exactly.
+     Children added first to last grow it by half again each time, so that
+     adding them all takes linear time rather than quadratic. */
   public void jjtAddChild(Node n, int i) {
     if (children == null) {
       children = new Node[i + 1];
     } else if (i >= children.length) {
-      Node c[] = new Node[i + 1];
+      Node c[] = new Node[Math.max(i + 1, children.length + (children.length >> 1) + 1)];
       System.arraycopy(children, 0, c, 0, children.length);
       children = c;
     }
     children[i] = n;
+    if (i >= numChildren) {
+      numChildren = i + 1;
+    }
   }
 
   public Node jjtGetChild(int i) {
@@ -45,12 +52,9 @@ class SimpleNode extends LEDscript2.interpreter.BaseASTNode implements Node {
   }
 
   public int jjtGetNumChildren() {
-    return (children == null) ? 0 : children.length;
+    return numChildren;
   }
 
-  public void jjtSetValue(Object value) { this.value = value; }
-  public Object jjtGetValue() { return value; }
-
   /** Accept the visitor. **/
   public Object jjtAccept(SiliVisitor visitor, Object data)
 {
@@ -60,10 +64,8 @@ class SimpleNode extends LEDscript2.interpreter.BaseASTNode implements Node {
   /** Accept the visitor. **/
   public Object childrenAccept(SiliVisitor visitor, Object data)
 {
-    if (children != null) {
-      for (int i = 0; i < children.length; ++i) {
-        children[i].jjtAccept(visitor, data);
-      }
+    for (int i = 0; i < numChildren; ++i) {
+      children[i].jjtAccept(visitor, data);
     }
     return data;
   }
@@ -83,7 +85,7 @@ class SimpleNode extends LEDscript2.interpreter.BaseASTNode implements Node {
   public void dump(String prefix) {
     System.out.println(toString(prefix));
     if (children != null) {
-      for (int i = 0; i < children.length; ++i) {
+      for (int i = 0; i < numChildren; ++i) {
         SimpleNode n = (SimpleNode)children[i];
         if (n != null) {
           n.dump(prefix + " ");
@@ -33,6 +33,19 @@ public interface Value {
 	/** Divide another value by this. */
 	public Value div(Value v);
 	
+	/** Add this value to another, holding the result between lower and upper.
+	 * A null bound is not applied.  A result outside the bounds is the bound itself. */
+	public Value addClamped(Value v, ValueInteger lower, ValueInteger upper);
+	
+	/** Subtract another value from this, holding the result between lower and upper. */
+	public Value subtractClamped(Value v, ValueInteger lower, ValueInteger upper);
+	
+	/** Multiply this value with another, holding the result between lower and upper. */
+	public Value multClamped(Value v, ValueInteger lower, ValueInteger upper);
+	
+	/** Divide this value by another, holding the result between lower and upper. */
+	public Value divClamped(Value v, ValueInteger lower, ValueInteger upper);
+	
 	/** Return unary plus of this value. */
 	public Value unary_plus();
 	
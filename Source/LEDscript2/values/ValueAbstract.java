@@ -36,6 +36,22 @@ public abstract class ValueAbstract implements Value {
 		throw new ExceptionSemantic("Cannot perform / on " + getName() + " and " + v.getName());
 	}
 
+	public Value addClamped(Value v, ValueInteger lower, ValueInteger upper) {
+		throw new ExceptionSemantic("Cannot perform + on " + getName() + " and " + v.getName());
+	}
+
+	public Value subtractClamped(Value v, ValueInteger lower, ValueInteger upper) {
+		throw new ExceptionSemantic("Cannot perform - on " + getName() + " and " + v.getName());
+	}
+
+	public Value multClamped(Value v, ValueInteger lower, ValueInteger upper) {
+		throw new ExceptionSemantic("Cannot perform * on " + getName() + " and " + v.getName());
+	}
+
+	public Value divClamped(Value v, ValueInteger lower, ValueInteger upper) {
+		throw new ExceptionSemantic("Cannot perform / on " + getName() + " and " + v.getName());
+	}
+
 	public Value unary_plus() {
 		throw new ExceptionSemantic("Cannot perform + on " + getName());
 	}
@@ -66,31 +82,31 @@ public abstract class ValueAbstract implements Value {
 
 	/** Test this value and another for equality. */
 	public Value eq(Value v) {
-		return new ValueBoolean(compare(v) == 0);
+		return ValueBoolean.of(compare(v) == 0);
 	}
 	
 	/** Test this value and another for non-equality. */
 	public Value neq(Value v) {
-		return new ValueBoolean(compare(v) != 0);
+		return ValueBoolean.of(compare(v) != 0);
 	}
 	
 	/** Test this value and another for >= */
 	public Value gte(Value v) {
-		return new ValueBoolean(compare(v) >= 0);
+		return ValueBoolean.of(compare(v) >= 0);
 	}
 	
 	/** Test this value and another for <= */
 	public Value lte(Value v) {
-		return new ValueBoolean(compare(v) <= 0);
+		return ValueBoolean.of(compare(v) <= 0);
 	}
 	
 	/** Test this value and another for > */
 	public Value gt(Value v) {
-		return new ValueBoolean(compare(v) > 0);
+		return ValueBoolean.of(compare(v) > 0);
 	}
 	
 	/** Test this value and another for < */	
 	public Value lt(Value v) {
-		return new ValueBoolean(compare(v) < 0);
+		return ValueBoolean.of(compare(v) < 0);
 	}
 }
@@ -2,12 +2,23 @@ package LEDscript2.values;
 
 public class ValueBoolean extends ValueAbstract {
 
+	/** Shared true. */
+	public static final ValueBoolean TRUE = new ValueBoolean(true);
+	
+	/** Shared false. */
+	public static final ValueBoolean FALSE = new ValueBoolean(false);
+
 	private boolean internalValue;
 	
 	public ValueBoolean(boolean b) {
 		internalValue = b;
 	}
 	
+	/** Return the shared ValueBoolean for the given value. */
+	public static ValueBoolean of(boolean b) {
+		return b ? TRUE : FALSE;
+	}
+	
 	public String getName() {
 		return "boolean";
 	}
@@ -23,15 +34,15 @@ public class ValueBoolean extends ValueAbstract {
 	}
 	
 	public Value or(Value v) {
-		return new ValueBoolean(internalValue || v.booleanValue());
+		return of(internalValue || v.booleanValue());
 	}
 
 	public Value and(Value v) {
-		return new ValueBoolean(internalValue && v.booleanValue());
+		return of(internalValue && v.booleanValue());
 	}
 
 	public Value not() {
-		return new ValueBoolean(!internalValue);
+		return of(!internalValue);
 	}
 
 	public int compare(Value v) {
@@ -1,13 +1,46 @@
 package LEDscript2.values;
 
+import LEDscript2.interpreter.ExceptionSemantic;
+
 public class ValueInteger extends ValueAbstract {
 
+	// Preallocated values for every colour channel, 0 to 255.  Nearly all integers in a
+	// running program are in this range.
+	private static final ValueInteger[] cache = new ValueInteger[256];
+	
+	static {
+		for (int i = 0; i < cache.length; i++)
+			cache[i] = new ValueInteger(i);
+	}
+
+	/** The lowest value of a colour channel. */
+	public static final ValueInteger MIN_CHANNEL = of(1);
+	
+	/** The highest value of a colour channel. */
+	public static final ValueInteger MAX_CHANNEL = of(255);
+
 	private long internalValue;
 	
 	public ValueInteger(long b) {
 		internalValue = b;
 	}
 	
+	/** Return a ValueInteger for the given value, shared if it is from 0 to 255. */
+	public static ValueInteger of(long b) {
+		if (b >= 0 && b < cache.length)
+			return cache[(int)b];
+		return new ValueInteger(b);
+	}
+
+	/** Return a value assigned to a variable, held to at least MIN_CHANNEL.  Only integers
+	 * can be assigned. */
+	public static ValueInteger assigned(Value v) {
+		if (!(v instanceof ValueInteger))
+			throw new ExceptionSemantic("Cannot assign " + v.getName() + " to a variable.");
+		ValueInteger test = (ValueInteger) v;
+		return (test.compare(MIN_CHANNEL) == -1) ? MIN_CHANNEL : test;
+	}
+	
 	public String getName() {
 		return "integer";
 	}
@@ -37,27 +70,52 @@ public class ValueInteger extends ValueAbstract {
 	}
 	
 	public Value add(Value v) {
-		return new ValueInteger(internalValue + v.longValue());
+		return of(internalValue + v.longValue());
 	}
 
 	public Value subtract(Value v) {
-		return new ValueInteger(internalValue - v.longValue());
+		return of(internalValue - v.longValue());
 	}
 
 	public Value mult(Value v) {
-		return new ValueInteger(internalValue * v.longValue());
+		return of(internalValue * v.longValue());
 	}
 
 	public Value div(Value v) {
-		return new ValueInteger(internalValue / v.longValue());
+		return of(internalValue / v.longValue());
+	}
+
+	// Hold a result between two bounds, returning the bound itself if it is outside.
+	private static Value clamp(long result, ValueInteger lower, ValueInteger upper) {
+		if (lower != null && result < lower.internalValue)
+			return lower;
+		if (upper != null && result > upper.internalValue)
+			return upper;
+		return of(result);
+	}
+
+	public Value addClamped(Value v, ValueInteger lower, ValueInteger upper) {
+		return clamp(internalValue + v.longValue(), lower, upper);
+	}
+
+	public Value subtractClamped(Value v, ValueInteger lower, ValueInteger upper) {
+		return clamp(internalValue - v.longValue(), lower, upper);
+	}
+
+	public Value multClamped(Value v, ValueInteger lower, ValueInteger upper) {
+		return clamp(internalValue * v.longValue(), lower, upper);
+	}
+
+	public Value divClamped(Value v, ValueInteger lower, ValueInteger upper) {
+		return clamp(internalValue / v.longValue(), lower, upper);
 	}
 
 	public Value unary_plus() {
-		return new ValueInteger(internalValue);
+		return this;
 	}
 
 	public Value unary_minus() {
-		return new ValueInteger(-internalValue);
+		return of(-internalValue);
 	}
 	
 	public String toString() {